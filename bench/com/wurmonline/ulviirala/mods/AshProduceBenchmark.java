@@ -0,0 +1,134 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.Loader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the code AshProduce generates for Item.coolOutSideItem against a
+ * stand-in Item, so ash engines can be compared before they're deployed.
+ *
+ * The stand-in (see AshStandIns) is built with javassist under the real
+ * class name, and the mod classes are loaded through the same pool, so the
+ * generated hook, AshSlots, AshWrites and AshAccrual run unchanged. Weight,
+ * QL and damage setters only store the value, the database isn't part of
+ * the numbers.
+ *
+ * Run with the GC profiler for the bytes allocated per op:
+ *
+ *     java -jar benchmarks.jar AshProduceBenchmark -prof gc
+ *
+ * coolingTick is a single tick on a container whose stacks filled up long
+ * ago, the worst case scan. coolingMinute is 60 ticks, then the container is
+ * opened (flush or settle) and the stacks are reset to 0.10 kg, so every
+ * engine does its real work. Its score is per tick. The lazy engine runs no
+ * code on ticks, its clock moves a second per tick, so the settle on open
+ * draws the minute's ash.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AshProduceBenchmark {
+    private static final int FORGE_TEMPLATE_ID = 180;
+    private static final int FILLER_TEMPLATE_ID = 1;
+
+    @Param({ "0", "10", "50", "100" })
+    public int containedItems;
+
+    @Param({ "1", "8", "64" })
+    public int ashStacks;
+
+    @Param({ "5", "50", "500" })
+    public int producers;
+
+    @Param({ "tick", "coalesced", "lazy" })
+    public String engine;
+
+    private Runnable _Tick;
+    private LongConsumer _Open;
+    private IntConsumer _SetAsh;
+    private long _Now = 0L;
+
+    @Setup
+    public void setup() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("ashChance", "10");
+        properties.setProperty("ashAmount", "1");
+        properties.setProperty("ashStacks", String.valueOf(ashStacks));
+        properties.setProperty("ashSeed", "1");
+        properties.setProperty("ashFlushInterval", engine.equals("coalesced") ? "60" : "0");
+        properties.setProperty("ashLazy", String.valueOf(engine.equals("lazy")));
+
+        StringBuilder templates = new StringBuilder(String.valueOf(FORGE_TEMPLATE_ID));
+        for (int i = 1; i < producers; i++)
+            templates.append(',').append(2000 + i);
+        properties.setProperty("ashProducers", templates.toString());
+
+        AshProduce ashProduce = new AshProduce();
+        ashProduce.configure(properties);
+
+        ClassPool pool = new ClassPool(true);
+        CtClass item = AshStandIns.Make(pool);
+        ashProduce.HookItem(item);
+        item.getDeclaredMethod("coolOutSideItem").insertBefore("{ " + ashProduce.BuildCoolingHook() + " }");
+
+        Loader loader = new Loader(AshProduceBenchmark.class.getClassLoader(), pool);
+        Class<?> itemClass = loader.loadClass("com.wurmonline.server.items.Item");
+        Constructor<?> constructor = itemClass.getConstructor(int.class, float.class, int.class);
+        Method insertItem = itemClass.getMethod("insertItem", itemClass, boolean.class);
+        Class<?> ashAccrual = loader.loadClass("com.wurmonline.ulviirala.mods.AshAccrual");
+        ashAccrual.getMethod("SetClock", LongSupplier.class).invoke(null, (LongSupplier)() -> _Now);
+
+        Object forge = constructor.newInstance(FORGE_TEMPLATE_ID, 50.0f, 100000);
+        for (int i = 0; i < containedItems; i++)
+            insertItem.invoke(forge, constructor.newInstance(FILLER_TEMPLATE_ID, 10.0f, 1000), true);
+        for (int i = 0; i < ashStacks; i++)
+            insertItem.invoke(forge, constructor.newInstance(AshSlots.ASH_TEMPLATE_ID, 20.0f, 100), true);
+
+        if (ashProduce.IsLazy())
+            ashAccrual.getMethod("Settle", itemClass, int.class).invoke(null, forge, ashProduce.BuildProducerTable()[FORGE_TEMPLATE_ID]);
+
+        _Tick = (Runnable)forge;
+        _Open = (LongConsumer)forge;
+        _SetAsh = (IntConsumer)forge;
+    }
+
+    @Benchmark
+    public void coolingTick() {
+        _Tick.run();
+        _Now += 1000L;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(60)
+    public void coolingMinute() {
+        for (int i = 0; i < 60; i++)
+            _Tick.run();
+        _Now += 60000L;
+
+        _Open.accept(1L);
+        _SetAsh.accept(100);
+    }
+}
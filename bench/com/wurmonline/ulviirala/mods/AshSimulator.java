@@ -0,0 +1,313 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.io.FileInputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.Loader;
+
+/**
+ * Fast-forwards a fleet of ash producers through simulated cooling ticks, so
+ * an AshProduce configuration can be tuned before it goes on a server.
+ *
+ *     java AshSimulator AshProduce.properties [containers] [hours] [openMinutes]
+ *
+ * The properties go through AshProduce.configure, and the generated cooling
+ * hook runs on stand-in Items (see AshStandIns), so every engine behaves as
+ * it would on the server. Each producer template gets the given number of
+ * containers (default 100), which stay lit for the given hours (default 24)
+ * and are opened by a player every openMinutes (default 30, 0 never), who
+ * takes all the ash out.
+ *
+ * The fleet is split across all cores with fork-join. Every part loads its
+ * own copy of the mod classes, so the static ash state isn't shared and
+ * parts never wait on each other. With ashSeed set, every part rolls the
+ * same numbers.
+ *
+ * For each template it prints the ash per container and hour that players
+ * took out or left in the end, the ash per hour while the stacks had room,
+ * which is the configured production rate however often players come by,
+ * and how long the stacks took to fill up between openings, as players see
+ * it. Then the database writes the whole fleet would have done, per second
+ * and per hour.
+ */
+public final class AshSimulator {
+    // Item.coolOutSideItem runs about once a second.
+    private static final int TICKS_PER_HOUR = 3600;
+    private static final int TICKS_PER_MINUTE = 60;
+
+    private AshSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AshSimulator <AshProduce.properties> [containers] [hours] [openMinutes]");
+            System.exit(1);
+        }
+
+        Properties properties = new Properties();
+        try (FileInputStream stream = new FileInputStream(args[0])) {
+            properties.load(stream);
+        }
+
+        int containers = Math.max(1, args.length > 1 ? Integer.valueOf(args[1]) : 100);
+        int hours = Math.max(1, args.length > 2 ? Integer.valueOf(args[2]) : 24);
+        int openMinutes = Math.max(0, args.length > 3 ? Integer.valueOf(args[3]) : 30);
+
+        AshProduce ashProduce = new AshProduce();
+        ashProduce.configure(properties);
+
+        int[] producers = ashProduce.BuildProducerTable();
+        int templateCount = 0;
+        for (int producer : producers)
+            if (producer != 0)
+                templateCount++;
+
+        int[] templates = new int[templateCount];
+        for (int templateId = 0, i = 0; templateId < producers.length; templateId++)
+            if (producers[templateId] != 0)
+                templates[i++] = templateId;
+
+        if (templates.length == 0) {
+            System.err.println("No ash producers configured.");
+            System.exit(1);
+        }
+
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        int total = templates.length * containers;
+        Fleet fleet = new Fleet(ashProduce, ashProduce.BuildCoolingHook(), templates, producers, containers,
+                hours * TICKS_PER_HOUR, openMinutes * TICKS_PER_MINUTE, Math.max(1, (total + parallelism - 1) / parallelism), 0, total);
+
+        long start = System.nanoTime();
+        Result result = ForkJoinPool.commonPool().invoke(fleet);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Simulated %d containers for %d hours in %.1f s on %d cores.%n%n",
+                total, hours, elapsed / 1e9, parallelism);
+        System.out.printf("%10s %10s %10s %10s %10s %10s %10s%n", "Template", "Containers", "Ash kg/h", "Room kg/h", "Filled", "Avg fill", "Max fill");
+
+        for (int i = 0; i < templates.length; i++) {
+            System.out.printf("%10d %10d %10.2f %10s %10d %10s %10s%n", templates[i], containers,
+                    result._AshGrams[i] / 1000.0 / containers / hours,
+                    result._RoomTicks[i] == 0 ? "-" : String.format("%.2f", result._RoomGrams[i] / 1000.0 / result._RoomTicks[i] * TICKS_PER_HOUR),
+                    result._Filled[i],
+                    result._Filled[i] == 0 ? "-" : Duration(result._FillTicks[i] / result._Filled[i]),
+                    result._Filled[i] == 0 ? "-" : Duration(result._MaxFillTicks[i]));
+        }
+
+        System.out.printf("%nDatabase writes: %d, %.1f per second, %.0f per hour.%n",
+                result._Writes, result._Writes / (double)(hours * TICKS_PER_HOUR), result._Writes / (double)hours);
+    }
+
+    private static String Duration(long ticks) {
+        return String.format("%dh %02dm", ticks / TICKS_PER_HOUR, ticks % TICKS_PER_HOUR / TICKS_PER_MINUTE);
+    }
+
+    /**
+     * Totals per producer template, in the order of the templates array.
+     */
+    private static final class Result {
+        final long[] _AshGrams;
+        final long[] _RoomGrams; // Ash made while the stacks had room.
+        final long[] _RoomTicks;
+        final long[] _Filled;
+        final long[] _FillTicks;
+        final long[] _MaxFillTicks;
+        long _Writes = 0;
+
+        Result(int templates) {
+            _AshGrams = new long[templates];
+            _RoomGrams = new long[templates];
+            _RoomTicks = new long[templates];
+            _Filled = new long[templates];
+            _FillTicks = new long[templates];
+            _MaxFillTicks = new long[templates];
+        }
+
+        Result Add(Result other) {
+            for (int i = 0; i < _AshGrams.length; i++) {
+                _AshGrams[i] += other._AshGrams[i];
+                _RoomGrams[i] += other._RoomGrams[i];
+                _RoomTicks[i] += other._RoomTicks[i];
+                _Filled[i] += other._Filled[i];
+                _FillTicks[i] += other._FillTicks[i];
+                _MaxFillTicks[i] = Math.max(_MaxFillTicks[i], other._MaxFillTicks[i]);
+            }
+
+            _Writes += other._Writes;
+            return this;
+        }
+    }
+
+    /**
+     * Simulates the containers from (inclusive) to to (exclusive), container
+     * n is the (n % containers)th of templates[n / containers].
+     */
+    private static final class Fleet extends RecursiveTask<Result> {
+        private final AshProduce _AshProduce;
+        private final String _CoolingHook;
+        private final int[] _Templates;
+        private final int[] _Producers;
+        private final int _Containers;
+        private final int _Ticks;
+        private final int _OpenTicks;
+        private final int _Threshold;
+        private final int _From;
+        private final int _To;
+
+        Fleet(AshProduce ashProduce, String coolingHook, int[] templates, int[] producers, int containers,
+                int ticks, int openTicks, int threshold, int from, int to) {
+            _AshProduce = ashProduce;
+            _CoolingHook = coolingHook;
+            _Templates = templates;
+            _Producers = producers;
+            _Containers = containers;
+            _Ticks = ticks;
+            _OpenTicks = openTicks;
+            _Threshold = threshold;
+            _From = from;
+            _To = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (_To - _From <= _Threshold) {
+                try {
+                    return Run();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            int middle = (_From + _To) >>> 1;
+            Fleet left = new Fleet(_AshProduce, _CoolingHook, _Templates, _Producers, _Containers, _Ticks, _OpenTicks, _Threshold, _From, middle);
+            Fleet right = new Fleet(_AshProduce, _CoolingHook, _Templates, _Producers, _Containers, _Ticks, _OpenTicks, _Threshold, middle, _To);
+            left.fork();
+
+            return right.compute().Add(left.join());
+        }
+
+        private Result Run() throws Exception {
+            ClassPool pool = new ClassPool(true);
+            CtClass item = AshStandIns.Make(pool);
+
+            // HookItem only reads the configuration, parts can share it.
+            _AshProduce.HookItem(item);
+            item.getDeclaredMethod("coolOutSideItem").insertBefore("{ " + _CoolingHook + " }");
+
+            Loader loader = new Loader(AshSimulator.class.getClassLoader(), pool);
+            Class<?> itemClass = loader.loadClass("com.wurmonline.server.items.Item");
+            Constructor<?> constructor = itemClass.getConstructor(int.class, float.class, int.class);
+            Method poll = loader.loadClass("com.wurmonline.ulviirala.mods.AshWrites").getMethod("Poll", long.class);
+            Method flushAll = loader.loadClass("com.wurmonline.ulviirala.mods.AshWrites").getMethod("FlushAll");
+            Method settleAll = loader.loadClass("com.wurmonline.ulviirala.mods.AshAccrual").getMethod("SettleAll");
+            Method settle = loader.loadClass("com.wurmonline.ulviirala.mods.AshAccrual").getMethod("Settle", itemClass, int.class);
+
+            // The lazy engine settles by the simulated seconds.
+            long[] now = { 0L };
+            loader.loadClass("com.wurmonline.ulviirala.mods.AshAccrual").getMethod("SetClock", LongSupplier.class)
+                    .invoke(null, (LongSupplier)() -> now[0]);
+
+            int count = _To - _From;
+            Runnable[] ticks = new Runnable[count];
+            LongConsumer[] opens = new LongConsumer[count];
+            IntSupplier[] ash = new IntSupplier[count];
+            IntConsumer[] empties = new IntConsumer[count];
+            int[] capacity = new int[count];
+            int[] fillTicks = new int[count];
+            long[] taken = new long[count];
+            int[] lastAsh = new int[count];
+            long[] roomGrams = new long[count];
+            long[] roomTicks = new long[count];
+            int[] emptiedAt = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                int templateId = _Templates[(_From + i) / _Containers];
+                int stacks = Math.min((_Producers[templateId] >> 8) & 0xFF, AshSlots.MAX_CONTAINER_ITEMS);
+                Object container = constructor.newInstance(templateId, 50.0f, 100000);
+
+                ticks[i] = (Runnable)container;
+                opens[i] = (LongConsumer)container;
+                ash[i] = (IntSupplier)container;
+                empties[i] = (IntConsumer)container;
+                capacity[i] = stacks * AshSlots.MAX_ASH_WEIGHT;
+                fillTicks[i] = -1;
+
+                // Like AshProduce.onServerStarted, the fires burn from the start.
+                if (_AshProduce.IsLazy())
+                    settle.invoke(null, container, _Producers[templateId]);
+            }
+
+            for (int tick = 1; tick <= _Ticks; tick++) {
+                now[0] = tick * 1000L;
+
+                for (int i = 0; i < count; i++) {
+                    ticks[i].run();
+
+                    // Players don't all open their forges at the same time,
+                    // and take the ash out when they do.
+                    if (_OpenTicks != 0 && (tick + _From + i) % _OpenTicks == 0) {
+                        opens[i].accept(1L);
+                        int grams = ash[i].getAsInt();
+
+                        // The stacks didn't fill up since the last minute's look.
+                        if (grams < capacity[i]) {
+                            roomGrams[i] += grams - lastAsh[i];
+                            roomTicks[i] += tick % TICKS_PER_MINUTE;
+                        }
+
+                        taken[i] += grams;
+                        lastAsh[i] = 0;
+                        emptiedAt[i] = tick;
+                        empties[i].accept(0);
+                    }
+                }
+
+                poll.invoke(null, tick * 1000L);
+
+                if (tick % TICKS_PER_MINUTE == 0) {
+                    for (int i = 0; i < count; i++) {
+                        int grams = ash[i].getAsInt();
+
+                        if (grams < capacity[i]) {
+                            roomGrams[i] += grams - lastAsh[i];
+                            roomTicks[i] += Math.min(TICKS_PER_MINUTE, tick - emptiedAt[i]);
+                        }
+                        else if (fillTicks[i] == -1)
+                            fillTicks[i] = tick - emptiedAt[i];
+
+                        lastAsh[i] = grams;
+                    }
+                }
+            }
+
+            flushAll.invoke(null);
+            settleAll.invoke(null);
+
+            Result result = new Result(_Templates.length);
+            for (int i = 0; i < count; i++) {
+                int template = (_From + i) / _Containers;
+                result._AshGrams[template] += taken[i] + ash[i].getAsInt();
+                result._RoomGrams[template] += roomGrams[i];
+                result._RoomTicks[template] += roomTicks[i];
+
+                if (fillTicks[i] != -1) {
+                    result._Filled[template]++;
+                    result._FillTicks[template] += fillTicks[i];
+                    result._MaxFillTicks[template] = Math.max(result._MaxFillTicks[template], fillTicks[i]);
+                }
+            }
+
+            result._Writes = itemClass.getField("dbWrites").getLong(null);
+            return result;
+        }
+    }
+}
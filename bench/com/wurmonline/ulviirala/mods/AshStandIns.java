@@ -0,0 +1,103 @@
+package com.wurmonline.ulviirala.mods;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+
+/**
+ * Stand-ins for Item, ItemFactory, Items and the exceptions AshSlots
+ * catches, built with javassist under the real class names.
+ *
+ * Item ticks as a Runnable, opens as a LongConsumer, resets its ash weight
+ * as an IntConsumer and reports its ash weight as an IntSupplier, so callers
+ * don't need reflection. Setters only store the value, but count the
+ * database writes the real ones would do in Item.dbWrites.
+ */
+final class AshStandIns {
+    private AshStandIns() {
+    }
+
+    static CtClass Make(ClassPool pool) throws Exception {
+        pool.makeClass("com.wurmonline.server.FailedException", pool.get("java.lang.Exception")).addConstructor(
+                CtNewConstructor.defaultConstructor(pool.get("com.wurmonline.server.FailedException")));
+        pool.makeClass("com.wurmonline.server.items.NoSuchTemplateException", pool.get("java.lang.Exception")).addConstructor(
+                CtNewConstructor.defaultConstructor(pool.get("com.wurmonline.server.items.NoSuchTemplateException")));
+
+        pool.makeClass("com.wurmonline.server.NoSuchItemException", pool.get("java.lang.Exception")).addConstructor(
+                CtNewConstructor.defaultConstructor(pool.get("com.wurmonline.server.NoSuchItemException")));
+
+        // Items keeps every live Item by wurm ID, like the server's.
+        CtClass item = pool.makeClass("com.wurmonline.server.items.Item");
+        CtClass items = pool.makeClass("com.wurmonline.server.Items");
+        items.addField(CtField.make("public static java.util.HashMap all = new java.util.HashMap();", items));
+        items.addMethod(CtNewMethod.make(
+                "public static com.wurmonline.server.items.Item getItem(long id) throws com.wurmonline.server.NoSuchItemException {"
+                + " Object item = all.get(Long.valueOf(id));"
+                + " if (item == null) throw new com.wurmonline.server.NoSuchItemException();"
+                + " return (com.wurmonline.server.items.Item)item; }", items));
+        items.addMethod(CtNewMethod.make("public static void destroyItem(long id) { all.remove(Long.valueOf(id)); }", items));
+
+        item.addInterface(pool.get("java.lang.Runnable"));
+        item.addInterface(pool.get("java.util.function.LongConsumer"));
+        item.addInterface(pool.get("java.util.function.IntConsumer"));
+        item.addInterface(pool.get("java.util.function.IntSupplier"));
+
+        item.addField(CtField.make("public static long dbWrites = 0L;", item));
+        item.addField(CtField.make("private static long nextId = 1L;", item));
+        item.addField(CtField.make("private long wurmId;", item));
+        item.addField(CtField.make("private long parentId;", item));
+        item.addField(CtField.make("private int templateId;", item));
+        item.addField(CtField.make("private int weight;", item));
+        item.addField(CtField.make("private float quality;", item));
+        item.addField(CtField.make("private short temperature;", item));
+        item.addField(CtField.make("private java.util.HashSet items;", item));
+
+        item.addConstructor(CtNewConstructor.make(
+                "public Item(int templateId, float quality, int weight) {"
+                + " this.wurmId = nextId++; this.parentId = -10L; this.templateId = templateId;"
+                + " this.quality = quality; this.weight = weight; this.temperature = (short)5000;"
+                + " this.items = new java.util.HashSet();"
+                + " com.wurmonline.server.Items.all.put(Long.valueOf(this.wurmId), this); }", item));
+
+        item.addMethod(CtNewMethod.make("public int getTemplateId() { return templateId; }", item));
+        item.addMethod(CtNewMethod.make("public long getWurmId() { return wurmId; }", item));
+        item.addMethod(CtNewMethod.make("public long getParentId() { return parentId; }", item));
+        item.addMethod(CtNewMethod.make("public int getWeightGrams() { return weight; }", item));
+        item.addMethod(CtNewMethod.make("public boolean setWeight(int weight, boolean destroyOnWeightZero) { this.weight = weight; dbWrites++; return false; }", item));
+        item.addMethod(CtNewMethod.make("public float getCurrentQualityLevel() { return quality; }", item));
+        item.addMethod(CtNewMethod.make("public boolean setQualityLevel(float quality) { this.quality = quality; dbWrites++; return false; }", item));
+        item.addMethod(CtNewMethod.make("public boolean setDamage(float damage) { dbWrites++; return false; }", item));
+        item.addMethod(CtNewMethod.make("public short getTemperature() { return temperature; }", item));
+        item.addMethod(CtNewMethod.make("public java.util.Set getItems() { return items; }", item));
+        item.addMethod(CtNewMethod.make(
+                "public void addItem(com.wurmonline.server.items.Item item, boolean newItem) { items.add(item); item.parentId = wurmId; }", item));
+        item.addMethod(CtNewMethod.make(
+                "public void removeItem(com.wurmonline.server.items.Item item) { items.remove(item); item.parentId = -10L; }", item));
+        item.addMethod(CtNewMethod.make(
+                "public boolean insertItem(com.wurmonline.server.items.Item item, boolean unconditionally) { addItem(item, false); dbWrites++; return true; }", item));
+        item.addMethod(CtNewMethod.make("public void addWatcher(long inventoryWindow) { }", item));
+        item.addMethod(CtNewMethod.make("public void coolOutSideItem(boolean insideStructure, boolean deeded) { }", item));
+        item.addMethod(CtNewMethod.make("public void run() { coolOutSideItem(false, false); }", item));
+        item.addMethod(CtNewMethod.make("public void accept(long inventoryWindow) { addWatcher(inventoryWindow); }", item));
+        // Resets the ash between ops without going through the hooked setters.
+        item.addMethod(CtNewMethod.make(
+                "public void accept(int ashWeight) { java.util.Iterator it = items.iterator();"
+                + " while (it.hasNext()) { com.wurmonline.server.items.Item child = (com.wurmonline.server.items.Item)it.next();"
+                + " if (child.templateId == 141) child.weight = ashWeight; } }", item));
+        item.addMethod(CtNewMethod.make(
+                "public int getAsInt() { int ashWeight = 0; java.util.Iterator it = items.iterator();"
+                + " while (it.hasNext()) { com.wurmonline.server.items.Item child = (com.wurmonline.server.items.Item)it.next();"
+                + " if (child.templateId == 141) ashWeight += child.weight; } return ashWeight; }", item));
+
+        // Creating an item inserts its row.
+        CtClass itemFactory = pool.makeClass("com.wurmonline.server.items.ItemFactory");
+        itemFactory.addMethod(CtNewMethod.make(
+                "public static com.wurmonline.server.items.Item createItem(int templateId, float quality, String creator) {"
+                + " com.wurmonline.server.items.Item.dbWrites++;"
+                + " return new com.wurmonline.server.items.Item(templateId, quality, 100); }", itemFactory));
+
+        return item;
+    }
+}
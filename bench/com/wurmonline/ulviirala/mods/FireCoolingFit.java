@@ -0,0 +1,127 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fits the cooling formula's coefficients to the samples FireTelemetry
+ * wrote, and prints them as FireBurnTime properties.
+ *
+ *     java FireCoolingFit mods/FireBurnTime/telemetry.csv
+ *
+ * The formula is a product, so its log is linear:
+ *
+ *     log(measured / Base(QL)) = log(outside) + roof * log(underRoof)
+ *                                + rain * log(inRain) + rarity * log(rarityFactor)
+ *
+ * which is solved by least squares. Each coefficient is pulled slightly
+ * towards its default, so one that has no samples, e.g. no fire was under a
+ * roof, keeps the default instead of making the fit singular.
+ */
+public final class FireCoolingFit {
+    private static final double[] DEFAULTS = { 1.0, 0.75, 2.0, 0.8999999761581421 };
+    private static final String[] NAMES = { "coolingOutside", "coolingUnderRoof", "coolingInRain", "coolingRarity" };
+    private static final double PRIOR_WEIGHT = 1e-3;
+
+    private FireCoolingFit() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FireCoolingFit <telemetry.csv>");
+            System.exit(1);
+        }
+
+        List<String> lines = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+        double[][] normal = new double[4][4];
+        double[] right = new double[4];
+        int[] counts = new int[3];
+        int samples = 0;
+
+        for (String line : lines) {
+            String[] fields = line.split(",");
+
+            if (fields.length != 4)
+                continue;
+
+            float quality = Float.valueOf(fields[0]);
+            int rarity = Integer.valueOf(fields[1]);
+            int surroundings = Integer.valueOf(fields[2]);
+            double measured = Double.valueOf(fields[3]);
+
+            if (measured <= 0 || surroundings < FireCooling.OUTSIDE || surroundings > FireCooling.IN_RAIN)
+                continue;
+
+            double[] x = {
+                1.0,
+                surroundings == FireCooling.UNDER_ROOF ? 1.0 : 0.0,
+                surroundings == FireCooling.IN_RAIN ? 1.0 : 0.0,
+                rarity
+            };
+            double y = Math.log(measured / FireCooling.Base(quality));
+
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++)
+                    normal[i][j] += x[i] * x[j];
+                right[i] += x[i] * y;
+            }
+
+            counts[surroundings]++;
+            samples++;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            normal[i][i] += PRIOR_WEIGHT;
+            right[i] += PRIOR_WEIGHT * Math.log(DEFAULTS[i]);
+        }
+
+        double[] fitted = Solve(normal, right);
+
+        System.out.printf("# %d samples, %d outside, %d under a roof, %d in rain.%n", samples, counts[0], counts[1], counts[2]);
+        for (int i = 0; i < 4; i++)
+            System.out.println(String.format(Locale.ROOT, "%s=%.4f", NAMES[i], Math.exp(fitted[i])));
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting, the system is small and
+     * positive definite.
+     */
+    static double[] Solve(double[][] a, double[] b) {
+        int n = b.length;
+
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < n; row++)
+                if (Math.abs(a[row][column]) > Math.abs(a[pivot][column]))
+                    pivot = row;
+
+            double[] swapRow = a[column];
+            a[column] = a[pivot];
+            a[pivot] = swapRow;
+            double swap = b[column];
+            b[column] = b[pivot];
+            b[pivot] = swap;
+
+            for (int row = column + 1; row < n; row++) {
+                double factor = a[row][column] / a[column][column];
+                for (int k = column; k < n; k++)
+                    a[row][k] -= factor * a[column][k];
+                b[row] -= factor * b[column];
+            }
+        }
+
+        double[] x = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = b[row];
+            for (int k = row + 1; k < n; k++)
+                sum -= a[row][k] * x[k];
+            x[row] = sum / a[row][row];
+        }
+
+        return x;
+    }
+}
@@ -0,0 +1,82 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.Loader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Item creation throughput with and without a post-creation hook.
+ *
+ * vanilla creates the item, inline adds the mailbox range check NoMailCost
+ * used to inject, and registry adds the ItemCreationHooks call, with a
+ * handler for the mailbox templates 510 - 513. The stand-in Item (see
+ * AshStandIns) takes the place of DbItem, so the database isn't part of
+ * the numbers, only what the hook adds to every item.
+ *
+ * templateId 266 (a sprout) has no handler, 512 is a mailbox.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ItemCreationBenchmark {
+    @Param({ "vanilla", "inline", "registry" })
+    public String hook;
+
+    @Param({ "266", "512" })
+    public int templateId;
+
+    private IntFunction<Object> _CreateItem;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        ClassPool pool = new ClassPool(true);
+        AshStandIns.Make(pool);
+
+        String hookCode = "";
+        if (hook.equals("inline"))
+            hookCode = "if (templateId >= 510 && templateId <= 513) toReturn.accept(1L);";
+        else if (hook.equals("registry"))
+            hookCode = ItemCreationHooks.CreationHook();
+
+        // Same shape as ItemFactory.createItem around the hook.
+        CtClass factory = pool.makeClass("com.wurmonline.ulviirala.mods.CreationPath");
+        factory.addInterface(pool.get("java.util.function.IntFunction"));
+        factory.addMethod(CtNewMethod.make(
+                "public Object apply(int templateId) {"
+                + " com.wurmonline.server.items.Item toReturn = new com.wurmonline.server.items.Item(templateId, 50.0f, 1000);"
+                + " " + hookCode
+                + " return toReturn; }", factory));
+
+        Loader loader = new Loader(ItemCreationBenchmark.class.getClassLoader(), pool);
+        Method register = loader.loadClass("com.wurmonline.ulviirala.mods.ItemCreationHooks").getMethod("Register", int.class, Consumer.class);
+        for (int mailbox = 510; mailbox <= 513; mailbox++)
+            register.invoke(null, mailbox, (Consumer<Object>)item -> ((java.util.function.LongConsumer)item).accept(1L));
+
+        _CreateItem = (IntFunction<Object>)loader.loadClass("com.wurmonline.ulviirala.mods.CreationPath").newInstance();
+    }
+
+    @Benchmark
+    public Object createItem() {
+        return _CreateItem.apply(templateId);
+    }
+}
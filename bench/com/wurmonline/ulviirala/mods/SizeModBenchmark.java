@@ -0,0 +1,74 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.Loader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Item.getSizeMod with and without a size override.
+ *
+ * vanilla is the stand-in Item (see AshStandIns) with a getSizeMod that
+ * scales by weight like the real one, stump adds the single template check
+ * TreeStumpSizeHack used to inject, and table adds the SizeOverrides hook,
+ * with the stump and 49 other templates overridden.
+ *
+ * templateId 266 (a sprout) isn't overridden, 731 is a tree stump.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SizeModBenchmark {
+    @Param({ "vanilla", "stump", "table" })
+    public String hook;
+
+    @Param({ "266", "731" })
+    public int templateId;
+
+    private DoubleSupplier _Item;
+
+    @Setup
+    public void setup() throws Exception {
+        ClassPool pool = new ClassPool(true);
+        CtClass item = AshStandIns.Make(pool);
+
+        item.addInterface(pool.get("java.util.function.DoubleSupplier"));
+        item.addMethod(CtNewMethod.make("public float getSizeMod() { return (float)Math.cbrt(getWeightGrams() / 1000.0); }", item));
+        item.addMethod(CtNewMethod.make("public double getAsDouble() { return getSizeMod(); }", item));
+
+        if (hook.equals("stump"))
+            item.getDeclaredMethod("getSizeMod").insertBefore("{ if (this.getTemplateId() == 731) return 10.0f; }");
+        else if (hook.equals("table"))
+            item.getDeclaredMethod("getSizeMod").insertBefore(TreeStumpSizeHack.SizeHook());
+
+        Loader loader = new Loader(SizeModBenchmark.class.getClassLoader(), pool);
+        StringBuilder sizes = new StringBuilder("731:10.0");
+        for (int other = 1; other < 50; other++)
+            sizes.append(',').append(1000 + other).append(":2.0");
+        loader.loadClass("com.wurmonline.ulviirala.mods.SizeOverrides").getMethod("Load", String.class).invoke(null, sizes.toString());
+
+        _Item = (DoubleSupplier)loader.loadClass("com.wurmonline.server.items.Item")
+                .getConstructor(int.class, float.class, int.class).newInstance(templateId, 50.0f, 1500);
+    }
+
+    @Benchmark
+    public double getSizeMod() {
+        return _Item.getAsDouble();
+    }
+}
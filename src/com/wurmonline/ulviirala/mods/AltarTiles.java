@@ -0,0 +1,118 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.endgames.EndGameItem;
+import com.wurmonline.server.endgames.EndGameItems;
+import com.wurmonline.server.zones.Zones;
+
+/**
+ * Bitmap of the tiles within the configured radius of the white and black
+ * light altars, one bit per tile of the map.
+ *
+ * Terraforming and structure planning test a single bit, instead of
+ * measuring the distance to both altars. The bitmap is filled when the
+ * altars are known at server start, and checked for moved altars every
+ * minute. A moved altar clears its old square and sets the new one, the
+ * rest of the map is left alone.
+ */
+public final class AltarTiles {
+    private static final long CHECK_MILLIS = 60000;
+
+    private static volatile long[] _Bits = null;
+    private static int _WorldSize = 0;
+    private static int _Radius = 0;
+    private static final int[] _AltarX = { -1, -1 };
+    private static final int[] _AltarY = { -1, -1 };
+    private static long _NextCheck = 0;
+
+    private AltarTiles() {
+    }
+
+    public static void SetRadius(int radius) {
+        _Radius = radius;
+    }
+
+    /**
+     * Whether the tile is within the radius of an altar.
+     */
+    public static boolean IsBlocked(int tileX, int tileY) {
+        long[] bits = _Bits;
+
+        if (bits == null || tileX < 0 || tileY < 0 || tileX >= _WorldSize || tileY >= _WorldSize)
+            return false;
+
+        long bit = (long)tileY * _WorldSize + tileX;
+        return (bits[(int)(bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Looks for moved altars once a minute, and at once the first time.
+     */
+    public static synchronized void Poll() {
+        long now = System.currentTimeMillis();
+
+        if (now < _NextCheck)
+            return;
+
+        _NextCheck = now + CHECK_MILLIS;
+
+        if (_Bits == null) {
+            _WorldSize = Zones.worldTileSizeX;
+            _Bits = new long[(int)(((long)_WorldSize * _WorldSize + 63) >>> 6)];
+        }
+
+        EndGameItem[] altars = { EndGameItems.getGoodAltar(), EndGameItems.getEvilAltar() };
+        boolean moved = false;
+
+        for (int i = 0; i < altars.length; i++) {
+            int tileX = altars[i] == null ? -1 : altars[i].getItem().getTileX();
+            int tileY = altars[i] == null ? -1 : altars[i].getItem().getTileY();
+
+            if (tileX == _AltarX[i] && tileY == _AltarY[i])
+                continue;
+
+            if (_AltarX[i] != -1)
+                Fill(_AltarX[i], _AltarY[i], false);
+
+            _AltarX[i] = tileX;
+            _AltarY[i] = tileY;
+            moved = true;
+        }
+
+        // Clearing may have taken tiles the other altar still covers.
+        if (moved)
+            for (int i = 0; i < _AltarX.length; i++)
+                if (_AltarX[i] != -1)
+                    Fill(_AltarX[i], _AltarY[i], true);
+    }
+
+    /**
+     * Sets or clears the square of tiles around an altar, a row at a time.
+     */
+    private static void Fill(int altarX, int altarY, boolean blocked) {
+        long[] bits = _Bits;
+        int fromX = Math.max(0, altarX - _Radius);
+        int toX = Math.min(_WorldSize - 1, altarX + _Radius);
+
+        if (fromX > toX)
+            return;
+
+        for (int y = Math.max(0, altarY - _Radius); y <= Math.min(_WorldSize - 1, altarY + _Radius); y++) {
+            long from = (long)y * _WorldSize + fromX;
+            long to = (long)y * _WorldSize + toX;
+
+            for (long word = from >>> 6; word <= to >>> 6; word++) {
+                long mask = -1L;
+
+                if (word == from >>> 6)
+                    mask &= -1L << from;
+                if (word == to >>> 6)
+                    mask &= -1L >>> (63 - (to & 63));
+
+                if (blocked)
+                    bits[(int)word] |= mask;
+                else
+                    bits[(int)word] &= ~mask;
+            }
+        }
+    }
+}
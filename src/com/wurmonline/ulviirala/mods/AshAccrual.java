@@ -0,0 +1,187 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.items.Item;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Lazy ash accrual, cooling ticks run no ash code at all. Each container
+ * keeps the time up to which its ash was settled, and the ash owed for the
+ * seconds its fire burned since then is drawn in one step when it's opened,
+ * examined, its fire goes out, or the server shuts down. The hook on
+ * Item.setTemperature only calls in when a producer's fire is lit or goes
+ * out, so a forge that burns for hours costs nothing until someone looks.
+ *
+ * Fireplaces get a cooling tick every second while they burn, and each tick
+ * is a trial with the producer's chance, so the number of won rolls over n
+ * ticks is binomial. Successes draws it by skipping from one success to the
+ * next with geometric gaps, which is exact and only costs one random number
+ * per success. It stops once the stacks can't take any more ash, since every
+ * roll after that went to waste anyway, so even a forge that burned for days
+ * settles with at most a few hundred draws.
+ *
+ * The producers that burn when the server starts are registered by one walk
+ * over the loaded items, they're taken to have burned since the start.
+ */
+public final class AshAccrual {
+    // Below this the fire is not lit, see FireBurnTime.
+    public static final int LIT_TEMPERATURE = 1000;
+    private static final long TICK_MILLIS = 1000;
+
+    private static final ArrayList<AshSlots> _Accruing = new ArrayList<>();
+    private static int _GramsPerRoll = 100;
+    private static Random _Random = null;
+    private static LongSupplier _Clock = System::currentTimeMillis;
+    private static long _Started = System.currentTimeMillis();
+
+    private AshAccrual() {
+    }
+
+    public static void SetGramsPerRoll(int grams) {
+        _GramsPerRoll = grams;
+    }
+
+    public static void SetSeed(long seed) {
+        _Random = new Random(seed);
+    }
+
+    /**
+     * Replaces the wall clock, e.g. with AshSimulator's simulated seconds,
+     * and starts counting from its current time.
+     */
+    public static synchronized void SetClock(LongSupplier clock) {
+        _Clock = clock;
+        _Started = clock.getAsLong();
+    }
+
+    /**
+     * Called before Item.setTemperature when a producer's fire is lit or
+     * goes out, producer is its entry in the producer table.
+     */
+    public static synchronized void Lit(Item container, int producer, boolean lit) {
+        Settle(container, producer, !lit, lit);
+    }
+
+    /**
+     * Adds the ash owed for the seconds the fire burned since the last
+     * settlement.
+     */
+    public static synchronized void Settle(Item container, int producer) {
+        boolean lit = container.getTemperature() >= LIT_TEMPERATURE;
+        Settle(container, producer, lit, lit);
+    }
+
+    /**
+     * Stops settling a destroyed container, see AshSlots.Sweep.
+     */
+    public static synchronized void Forget(AshSlots slots) {
+        if (slots._Accruing) {
+            slots._Accruing = false;
+            _Accruing.remove(slots);
+        }
+    }
+
+    /**
+     * Settles all burning containers, e.g. before the server shuts down.
+     */
+    public static synchronized void SettleAll() {
+        long now = _Clock.getAsLong();
+
+        for (AshSlots slots : _Accruing) {
+            slots._Accruing = false;
+
+            if (slots._Destroyed || !AshSlots.Exists(slots))
+                continue;
+
+            // Revalidates the stacks, they may have moved since the last look.
+            AshSlots.Get(slots._Container);
+            Draw(slots, now);
+        }
+
+        _Accruing.clear();
+    }
+
+    private static void Settle(Item container, int producer, boolean wasLit, boolean lit) {
+        AshSlots slots = AshSlots.Get(container);
+        long now = _Clock.getAsLong();
+        slots._Producer = producer;
+
+        // Burning when first seen, so since the server started.
+        if (!slots._Seen) {
+            slots._Seen = true;
+            slots._Lit = wasLit;
+            slots._SettledAt = _Started;
+        }
+
+        if (slots._Lit)
+            Draw(slots, now);
+        else if (lit)
+            slots._SettledAt = now;
+
+        if (lit && !slots._Accruing) {
+            slots._Accruing = true;
+            _Accruing.add(slots);
+        }
+        else if (!lit && slots._Accruing) {
+            slots._Accruing = false;
+            _Accruing.remove(slots);
+        }
+
+        slots._Lit = lit;
+    }
+
+    /**
+     * Fills in the ash of the whole ticks since the last settlement, the
+     * rest of a second is owed next time.
+     */
+    private static void Draw(AshSlots slots, long now) {
+        long ticks = (now - slots._SettledAt) / TICK_MILLIS;
+
+        if (ticks <= 0)
+            return;
+
+        slots._SettledAt += ticks * TICK_MILLIS;
+
+        Item container = slots._Container;
+        int chance = slots._Producer & 0xFF;
+        int stackLimit = (slots._Producer >> 8) & 0xFF;
+
+        // A roll wins if chance >= nextInt(100).
+        double p = Math.min(1.0, (chance + 1) / 100.0);
+        int cap = (slots.Room(stackLimit) + _GramsPerRoll - 1) / _GramsPerRoll;
+        int successes = Successes((int)Math.min(Integer.MAX_VALUE, ticks), p, cap, _Random != null ? _Random : ThreadLocalRandom.current());
+
+        if (successes > 0)
+            slots.Fill(container, successes * _GramsPerRoll, container.getCurrentQualityLevel(), stackLimit);
+    }
+
+    /**
+     * Draws from the binomial distribution of the given number of trials and
+     * success probability, but stops counting at cap.
+     */
+    static int Successes(int trials, double p, int cap, Random random) {
+        if (p >= 1.0)
+            return Math.min(trials, cap);
+
+        if (p <= 0.0 || cap <= 0)
+            return 0;
+
+        double logFailure = Math.log1p(-p);
+        long trial = 0;
+        int successes = 0;
+
+        while (successes < cap) {
+            // Trials up to and including the next success, 1 - nextDouble is in (0, 1].
+            trial += (long)(Math.log(1.0 - random.nextDouble()) / logFailure) + 1;
+
+            if (trial > trials)
+                break;
+
+            successes++;
+        }
+
+        return successes;
+    }
+}
@@ -1,7 +1,8 @@
 package com.wurmonline.ulviirala.mods;
 
+import com.wurmonline.server.Items;
+import com.wurmonline.server.items.Item;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -10,24 +11,30 @@ import javassist.CannotCompileException;
 import javassist.CtClass;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.Modifier;
 import javassist.NotFoundException;
 import javassist.expr.ExprEditor;
 import javassist.expr.MethodCall;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
 import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
+import org.gotti.wurmunlimited.modloader.interfaces.ServerPollListener;
+import org.gotti.wurmunlimited.modloader.interfaces.ServerStartedListener;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
 /**
  * Enables the generation of ash in specified template IDs like forges with
  * a percentage chance.
  */
-public class AshProduce implements WurmServerMod, PreInitable, Configurable {
+public class AshProduce implements WurmServerMod, PreInitable, Configurable, ServerStartedListener, ServerPollListener {
     private static final Logger _Logger = Logger.getLogger(AshProduce.class.getName());
     
     private int _AshChance = 60; // Default percentage chance.
     private int _AshStacks = 1; // Default max ash stacks in container.
     private int _AshAmount = 1; // Default pieces of ash per successful tick.
+    private long _AshSeed = -1; // Seed for deterministic ash rolls, -1 is off.
+    private int _AshFlushInterval = 0; // Seconds between ash writes, 0 writes every tick.
+    private boolean _AshLazy = false; // Draw the ash owed for the lit time when looked at.
     
     // Map of what templateID has a specific chance and stack limit.
     private HashMap<Integer, Integer> _Chances = new HashMap<Integer, Integer>();
@@ -36,155 +43,247 @@ public class AshProduce implements WurmServerMod, PreInitable, Configurable {
     @Override
     public void preInit() {
         _Logger.info("Initialising AshProduce 1.4.1.");
+        
+        try {
+            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item");
+            HookItem(ctClass);
+            
+            // Lazy mode leaves the cooling ticks alone.
+            String coolingHook = BuildCoolingHook();
+            if (!coolingHook.isEmpty()) {
+                CtMethod ctMethod = ctClass.getMethod("coolOutSideItem", "(ZZ)V");
+                ctMethod.instrument(new ExprEditor() {
+                    @Override
+                    public void edit (MethodCall methodCall) throws CannotCompileException {
+                        if (methodCall.getMethodName().equals("getTemplateId"))
+                            ctMethod.insertAt(methodCall.getLineNumber(), coolingHook);
+                    }
+                });
+            }
+            
+            // Shutdown writes everything that's left.
+            if (_AshLazy)
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.Server").getDeclaredMethod("shutDown")
+                        .insertBefore("{ com.wurmonline.ulviirala.mods.AshAccrual.SettleAll(); }");
+            else if (_AshFlushInterval != 0)
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.Server").getDeclaredMethod("shutDown")
+                        .insertBefore("{ com.wurmonline.ulviirala.mods.AshWrites.Shutdown(); }");
+        } catch (CannotCompileException | NotFoundException ex) {
+            Logger.getLogger(AshProduce.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
 
+    /**
+     * Generates the code inserted into Item.coolOutSideItem.
+     */
+    String BuildCoolingHook() {
         /**
-         * As messy and convoluted as this code looks, profiling suggests that
-         * on average, one pass takes 0.000n milliseconds. That's n/1000th of
-         * a millisecond, or 0.0000000n seconds (on my system). Much of verbose 
-         * high level code ends up being the same in javassembler as well,
-         * often due to compiler optimisation.
-         * 
-         * If you're reading this and have a solid suggestion on improving this
-         * code's performance, feel free to post in the thread or PM me.
+         * Only the table lookup and the roll are generated inline, they run
+         * for every item that cools outside. Everything after a won roll is
+         * in AshSlots and AshWrites, which only producers ever reach.
          */
         
-        StringBuilder sb = new StringBuilder();
-        
-        sb.append("int ashChance = _AshChances.nextInt(100);");
+        // ticks run no ash code at all, the ash owed is drawn when someone looks, see AshAccrual.
+        if (_AshLazy)
+            return "";
         
-        // if (random chance is met AND for this template ID)
-        sb.append("if (");
-        Iterator iterator = _Chances.entrySet().iterator();
-        while (true) {
-            Entry<Integer,Integer> next = (Entry<Integer,Integer>)iterator.next();
-            sb.append(String.format("(%d >= ashChance && this.getTemplateId() == %d)", next.getValue(), next.getKey()));
-            
-            if (!iterator.hasNext())
-                break;
-            
-            sb.append(" || ");
-        }
-        sb.append(") {");
+        StringBuilder sb = new StringBuilder();
         
-        sb.append("com.wurmonline.server.items.Item[] forgeItems = this.getItemsAsArray();");
+        // one array load answers if this is a producer, its chance and stack limit.
+        sb.append("int ashProducer = this.getTemplateId() < _AshProducers.length ? _AshProducers[this.getTemplateId()] : 0;");
         
-        // counting ash stacks in forge while iterating
-        sb.append("int ashStacks = 0;");
+        // only roll for producers, all other items leave the RNG alone.
+        sb.append("if (ashProducer != 0) {");
         
-        // this much ash needs to be added in total
-        sb.append("int ashWeightToAdd = " + String.valueOf(100 * _AshAmount) + ";");
+        /**
+         * Ash rolls used to come from a java.util.Random field on every Item,
+         * see EstimateHeapSaved. ThreadLocalRandom keeps no state on the item
+         * and doesn't CAS a shared seed, the seeded mode uses one static
+         * generator on the Item class, so a single ticking thread gets the
+         * same sequence of rolls every run.
+         */
+        if (_AshSeed == -1)
+            sb.append("int ashChance = java.util.concurrent.ThreadLocalRandom.current().nextInt(100);");
+        else
+            sb.append("int ashChance = _AshRandom.nextInt(100);");
         
-        // Iterates through items in forge/container
-        sb.append("for (int iForge = 0; iForge < forgeItems.length; iForge++) {");
+        // if (random chance is met for this template ID)
+        sb.append("if ((ashProducer & 0xFF) >= ashChance) {");
         
-        // Skip if item is not ash, doesn't need to be counted or anything.
-        sb.append("    if (forgeItems[iForge].getTemplateId() != 141) continue;");
+        // stack limit for this template ID.
+        sb.append("int ashStackLimit = (ashProducer >> 8) & 0xFF;");
         
-        // Pull into local variable, so we don't have to push iForge before getting array element.
-        // I'm not sure if loading a local variable is faster.
-        sb.append("    com.wurmonline.server.items.Item forgeItem = forgeItems[iForge];");
+        // this much ash needs to be added in total, with this container's QL.
+        // Either straight into the ash stacks, or kept in memory until the
+        // next flush, see AshSlots.Fill and AshWrites.
+        if (_AshFlushInterval == 0)
+            sb.append("com.wurmonline.ulviirala.mods.AshSlots.Get(this).Fill(this, " + String.valueOf(100 * _AshAmount) + ", this.getCurrentQualityLevel(), ashStackLimit);");
+        else
+            sb.append("com.wurmonline.ulviirala.mods.AshWrites.Defer(this, " + String.valueOf(100 * _AshAmount) + ", ashStackLimit);");
         
-        // current ash item's weight.
-        sb.append("    int ashWeight = forgeItem.getWeightGrams();");
+        sb.append("} }");
         
-        // count the stack.
-        sb.append("    ashStacks++;");
+        /* Example:
+                int ashProducer = this.getTemplateId() < _AshProducers.length ? _AshProducers[this.getTemplateId()] : 0;
+                if (ashProducer != 0) {
+                    int ashChance = java.util.concurrent.ThreadLocalRandom.current().nextInt(100);
+                    if ((ashProducer & 0xFF) >= ashChance) {
+                        int ashStackLimit = (ashProducer >> 8) & 0xFF;
+                        com.wurmonline.ulviirala.mods.AshSlots.Get(this).Fill(this, 100, this.getCurrentQualityLevel(), ashStackLimit);
+                    }
+                }
+        */
         
-        // if this ash item's weight is already at its maximum, skip it.
-        sb.append("    if (ashWeight >= 6400) continue;");
+        return sb.toString();
+    }
+
+    /**
+     * Adds the ash fields, producer table and container hooks to the Item
+     * class, or to a stand-in for it (see AshProduceBenchmark).
+     */
+    void HookItem(CtClass ctClass) throws CannotCompileException, NotFoundException {
+        if (_AshSeed != -1 && !_AshLazy)
+            ctClass.addField(CtField.make("private static final java.util.Random _AshRandom = new java.util.Random(" + _AshSeed + "L);", ctClass));
         
-        // if (templateID = value AND found stacks is greater than allowed stacks)
-        sb.append("if (");
-        for (Entry<Integer, Integer> entry : _Stacks.entrySet())
-            sb.append(String.format("(this.getTemplateId() == %d && ashStacks > %d) ||", entry.getKey(), entry.getValue()));
-        sb.delete(sb.lastIndexOf("||"), sb.length());
-        // set weight to add to 0, no new stacks are created, and it's first in the evaluation order later
-        sb.append(") { ashWeightToAdd = 0; break; }"); 
+        // Fills the producer table in Item's class initialiser, only
+        // configured template IDs get an assignment. The ash engine settings
+        // go along with it, so they always match the generated code.
+        int[] producers = BuildProducerTable();
+        StringBuilder initializer = new StringBuilder("{ _AshProducers = new int[" + producers.length + "];");
+        for (int templateId = 0; templateId < producers.length; templateId++)
+            if (producers[templateId] != 0)
+                initializer.append(String.format(" _AshProducers[%d] = %d;", templateId, producers[templateId]));
+        if (_AshLazy) {
+            initializer.append(" com.wurmonline.ulviirala.mods.AshAccrual.SetGramsPerRoll(" + (100 * _AshAmount) + ");");
+            if (_AshSeed != -1)
+                initializer.append(" com.wurmonline.ulviirala.mods.AshAccrual.SetSeed(" + _AshSeed + "L);");
+        }
+        else if (_AshFlushInterval != 0)
+            initializer.append(" com.wurmonline.ulviirala.mods.AshWrites.SetInterval(" + _AshFlushInterval + ");");
+        initializer.append(" }");
+        ctClass.addField(CtField.make("private static int[] _AshProducers;", ctClass));
+        ctClass.makeClassInitializer().insertAfter(initializer.toString());
         
-        // this much ash remains after adding ash to the current ash item.
-        sb.append("    int ashRemainder = Math.max(0, ashWeightToAdd - (6400 - ashWeight));");
+        // Keeps AshSlots up to date, only producers pay for the call.
+        String isProducer = "this.getTemplateId() < _AshProducers.length && _AshProducers[this.getTemplateId()] != 0";
+        for (CtMethod addItem : ctClass.getDeclaredMethods("addItem"))
+            if (TakesItem(addItem))
+                addItem.insertAfter("{ if ($1 != null && " + isProducer + ") com.wurmonline.ulviirala.mods.AshSlots.Added(this, $1); }");
+        for (CtMethod removeItem : ctClass.getDeclaredMethods("removeItem"))
+            if (TakesItem(removeItem))
+                removeItem.insertAfter("{ if ($1 != null && " + isProducer + ") com.wurmonline.ulviirala.mods.AshSlots.Removed(this, $1); }");
         
-        // this is how much we'll add to the current ash item.
-        sb.append("    int actualAddWeight = ashWeightToAdd - ashRemainder;");
+        // Opening a container shows the real ash weight, so pending ash
+        // is written first.
+        if (_AshLazy) {
+            String settle = "{ if (" + isProducer + ") com.wurmonline.ulviirala.mods.AshAccrual.Settle(this, _AshProducers[this.getTemplateId()]); }";
+            for (CtMethod addWatcher : ctClass.getDeclaredMethods("addWatcher"))
+                addWatcher.insertBefore(settle);
+            
+            // Examining an item sends its enchantments.
+            for (CtMethod sendEnchantmentStrings : ctClass.getDeclaredMethods("sendEnchantmentStrings"))
+                sendEnchantmentStrings.insertBefore(settle);
+            
+            // A fire being lit starts the clock, going out settles it. Only
+            // producers whose fire crosses the lit temperature call in.
+            String lit = "$1 >= " + AshAccrual.LIT_TEMPERATURE;
+            for (CtMethod setTemperature : ctClass.getDeclaredMethods("setTemperature"))
+                if (!Modifier.isAbstract(setTemperature.getModifiers()) && setTemperature.getParameterTypes().length == 1)
+                    setTemperature.insertBefore("{ if ((" + lit + ") != (this.getTemperature() >= " + AshAccrual.LIT_TEMPERATURE + ") && " + isProducer
+                            + ") com.wurmonline.ulviirala.mods.AshAccrual.Lit(this, _AshProducers[this.getTemplateId()], " + lit + "); }");
+        }
+        else if (_AshFlushInterval != 0) {
+            for (CtMethod addWatcher : ctClass.getDeclaredMethods("addWatcher"))
+                addWatcher.insertBefore("{ if (" + isProducer + ") com.wurmonline.ulviirala.mods.AshWrites.Flush(this); }");
+        }
+    }
+
+    /**
+     * Whether ash is drawn lazily, AshSimulator and AshProduceBenchmark then
+     * drive AshAccrual's clock.
+     */
+    boolean IsLazy() {
+        return _AshLazy;
+    }
+
+    /**
+     * Whether the method's first parameter is an Item.
+     */
+    private static boolean TakesItem(CtMethod method) throws NotFoundException {
+        CtClass[] parameters = method.getParameterTypes();
+        return parameters.length > 0 && parameters[0].getName().equals("com.wurmonline.server.items.Item");
+    }
+
+    /**
+     * Compiles _Chances and _Stacks into a dense table indexed by template ID.
+     * 
+     * Each entry is 0 for items that don't produce ash, otherwise bit 16 is
+     * set to mark a producer, bits 8 - 15 hold the stack limit (0 - 100) and
+     * bits 0 - 7 the chance (0 - 100). Producers with a negative chance could
+     * never win a roll, they are left out of the table.
+     */
+    int[] BuildProducerTable() {
+        int maxTemplateId = -1;
+        for (int templateId : _Chances.keySet())
+            maxTemplateId = Math.max(maxTemplateId, templateId);
         
-        // average QL like vanilla Wurm.
-        sb.append("    float newAshQl = forgeItem.getCurrentQualityLevel() * ashWeight + this.getCurrentQualityLevel() * actualAddWeight;"); 
-        sb.append("    forgeItem.setWeight(Math.min(6400, ashWeight + actualAddWeight), true);");
-        sb.append("    forgeItem.setQualityLevel(newAshQl / forgeItem.getWeightGrams());");
-        sb.append("    forgeItem.setDamage(0.0f);");
+        int[] producers = new int[maxTemplateId + 1];
+        for (Entry<Integer, Integer> entry : _Chances.entrySet()) {
+            int templateId = entry.getKey();
+            int chance = Math.min(100, entry.getValue());
+            int stacks = _Stacks.get(templateId);
+            
+            if (templateId < 0 || chance < 0) {
+                _Logger.log(Level.WARNING, "Ash producer ID {0} with {1} % chance will never produce ash, skipping it.",
+                        new Object[] { templateId, chance });
+                continue;
+            }
+            
+            producers[templateId] = 0x10000 | (stacks << 8) | chance;
+        }
         
-        // this much ash remains to be added/
-        sb.append("    ashWeightToAdd = ashRemainder;");
-        sb.append("    if (ashRemainder <= 0) break;"); // stop looking for more existing ash stacks to fill.
-        sb.append("}");
+        return producers;
+    }
 
-        // creates a new ash item, if there's more to be added, the forge has
-        // less than 100 items, and the ash stack limit for the template ID
-        // isn't hit yet.
-        sb.append("if (ashWeightToAdd > 0 && this.getItemsAsArray().length < 100 && (");
-        for (Entry<Integer, Integer> entry : _Stacks.entrySet())
-            sb.append(String.format("(this.getTemplateId() == %d && ashStacks < %d) ||", entry.getKey(), entry.getValue()));
-        sb.delete(sb.lastIndexOf("||"), sb.length());
-        sb.append(")) { com.wurmonline.server.items.Item newAsh = com.wurmonline.server.items.ItemFactory.createItem(141, this.getCurrentQualityLevel(), null);"
-                + "     if (!this.insertItem(newAsh, true)) com.wurmonline.server.Items.destroyItem(newAsh.getWurmId());"
-                + "   }");
-        sb.append("}");
+    @Override
+    public void onServerPoll() {
+        // Destroyed producers leave the ash index, see AshSlots.Sweep.
+        AshSlots.Sweep();
         
-        /* Example:
-                int ashChance = _AshChances.nextInt(100);
-                if ((65 >= ashChance && this.getTemplateId() == 178) || (70 >= ashChance && this.getTemplateId() == 180) || (95 >= ashChance && this.getTemplateId() == 1028) || (60 >= ashChance && this.getTemplateId() == 37) || (100 >= ashChance && this.getTemplateId() == 1023)) {
-                    com.wurmonline.server.items.Item[] forgeItems = this.getItemsAsArray();
-                    int ashStacks = 0;
-                    int ashWeightToAdd = 100;
-                    for (int iForge = 0; iForge < forgeItems.length; iForge++) {
-                        if (forgeItems[iForge].getTemplateId() != 141) {
-                            continue;
-                        }
-                        com.wurmonline.server.items.Item forgeItem = forgeItems[iForge];
-                        int ashWeight = forgeItem.getWeightGrams();
-                        ashStacks++;
-                        if (ashWeight >= 6400) {
-                            continue;
-                        }
-                        if ((this.getTemplateId() == 178 && ashStacks > 2) || (this.getTemplateId() == 180 && ashStacks > 3) || (this.getTemplateId() == 1028 && ashStacks > 1) || (this.getTemplateId() == 37 && ashStacks > 1) || (this.getTemplateId() == 1023 && ashStacks > 4)) {
-                            ashWeightToAdd = 0;
-                            break;
-                        }
-                        int ashRemainder = Math.max(0, ashWeightToAdd - (6400 - ashWeight));
-                        int actualAddWeight = ashWeightToAdd - ashRemainder;
-                        float newAshQl = forgeItem.getCurrentQualityLevel() * ashWeight + this.getCurrentQualityLevel() * actualAddWeight;
-                        forgeItem.setWeight(Math.min(6400, ashWeight + actualAddWeight), true);
-                        forgeItem.setQualityLevel(newAshQl / forgeItem.getWeightGrams());
-                        forgeItem.setDamage(0.0f);
-                        ashWeightToAdd = ashRemainder;
-                        if (ashRemainder <= 0) {
-                            break;
-                        }
-                    }
-                    if (ashWeightToAdd > 0 && this.getItemsAsArray().length < 100 && ((this.getTemplateId() == 178 && ashStacks < 2) || (this.getTemplateId() == 180 && ashStacks < 3) || (this.getTemplateId() == 1028 && ashStacks < 1) || (this.getTemplateId() == 37 && ashStacks < 1) || (this.getTemplateId() == 1023 && ashStacks < 4))) {
-                        com.wurmonline.server.items.Item newAsh = com.wurmonline.server.items.ItemFactory.createItem(141, this.getCurrentQualityLevel(), null);
-                        if (!this.insertItem(newAsh, true)) {
-                            com.wurmonline.server.Items.destroyItem(newAsh.getWurmId());
-                        }
-                    }
-                }
-        */
+        if (_AshFlushInterval != 0 && !_AshLazy)
+            AshWrites.Poll();
+    }
+
+    @Override
+    public void onServerStarted() {
+        int itemCount = Items.getNumberOfItems();
+        _Logger.log(Level.INFO, "No ash RNG on {0} loaded items saves about {1} KiB of heap.",
+                new Object[] { itemCount, EstimateHeapSaved(itemCount) / 1024 });
         
-        try {
-            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item");
-            ctClass.addField(new CtField(HookManager.getInstance().getClassPool().get("java.util.Random"), "_AshChances", ctClass), "new java.util.Random();");
-            CtMethod ctMethod = ctClass.getMethod("coolOutSideItem", "(ZZ)V");
-            ctMethod.instrument(new ExprEditor() {
-                @Override
-                public void edit (MethodCall methodCall) throws CannotCompileException {
-                    if (methodCall.getMethodName().equals("getTemplateId"))
-                        ctMethod.insertAt(methodCall.getLineNumber(), sb.toString());
-                }
-            });
-        } catch (CannotCompileException | NotFoundException ex) {
-            Logger.getLogger(AshProduce.class.getName()).log(Level.SEVERE, null, ex);
+        // Fires that already burn never cross the lit temperature, so the
+        // lazy mode picks them up once here.
+        if (_AshLazy) {
+            int[] producers = BuildProducerTable();
+            for (Item item : Items.getAllItems())
+                if (item.getTemplateId() < producers.length && producers[item.getTemplateId()] != 0)
+                    AshAccrual.Settle(item, producers[item.getTemplateId()]);
         }
     }
+    
+    /**
+     * Heap that a per-Item java.util.Random field would take for the given
+     * number of items, with compressed oops (the default below 32 GB heap):
+     * 
+     * Random     12 header + 4 AtomicLong ref + 8 double + 1 boolean = 32 bytes
+     * AtomicLong 12 header + 8 long                                = 24 bytes
+     * Item field 4 byte reference                                  =  4 bytes
+     * 
+     * That's 60 bytes per item, not counting the seed uniquifier CAS that
+     * every Random constructor did when items were created or loaded.
+     */
+    public static long EstimateHeapSaved(long itemCount) {
+        return itemCount * (32 + 24 + 4);
+    }
 
     @Override
     public void configure(Properties properties) {
@@ -201,6 +300,20 @@ public class AshProduce implements WurmServerMod, PreInitable, Configurable {
         _AshAmount = Math.max(1, Math.min(64, Integer.valueOf(properties.getProperty("ashAmount", String.valueOf(_AshAmount)))));
         _Logger.log(Level.INFO, "Global ash amount per tick is {0}.", _AshAmount);
         
+        _AshSeed = Long.valueOf(properties.getProperty("ashSeed", String.valueOf(_AshSeed)));
+        if (_AshSeed != -1)
+            _Logger.log(Level.INFO, "Ash rolls are deterministic with seed {0}.", String.valueOf(_AshSeed));
+        
+        _AshFlushInterval = Math.max(0, Math.min(3600, Integer.valueOf(properties.getProperty("ashFlushInterval", String.valueOf(_AshFlushInterval)))));
+        if (_AshFlushInterval == 0)
+            _Logger.log(Level.INFO, "Ash is written to the database every tick.");
+        else
+            _Logger.log(Level.INFO, "Ash is kept in memory and written every {0} seconds.", _AshFlushInterval);
+        
+        _AshLazy = Boolean.valueOf(properties.getProperty("ashLazy", String.valueOf(_AshLazy)));
+        if (_AshLazy)
+            _Logger.log(Level.INFO, "Ash is drawn when a container is opened, examined or cools out.");
+        
         String templateValues = properties.getProperty("ashProducers", "37,178,180,1023,1028");
         try {
             String[] producers = templateValues.split(",");
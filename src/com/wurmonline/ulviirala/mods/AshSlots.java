@@ -0,0 +1,372 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.FailedException;
+import com.wurmonline.server.Items;
+import com.wurmonline.server.NoSuchItemException;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemFactory;
+import com.wurmonline.server.items.NoSuchTemplateException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the ash stacks inside ash producing containers, so cooling ticks
+ * only look at the ash and never copy the container's whole contents.
+ *
+ * Entries are created on a container's first ash tick, or first settlement
+ * in lazy mode, by walking its items once, after that the hooks on
+ * Item.addItem and Item.removeItem keep them up to date. The index is an open addressing table keyed by the primitive
+ * wurm ID, so looking up a container doesn't box a Long every second.
+ * Destroyed containers, e.g. campfires that decayed, are swept out of the
+ * index about once a minute from the server poll, so destroying other items
+ * never touches it. Until then their entries are skipped wherever ash would
+ * be written.
+ */
+public final class AshSlots {
+    private static final Logger _Logger = Logger.getLogger(AshSlots.class.getName());
+    
+    static final int ASH_TEMPLATE_ID = 141;
+    static final int MAX_ASH_WEIGHT = 6400;
+    static final int MAX_CONTAINER_ITEMS = 100;
+
+    private static long[] _Keys = new long[64];
+    private static AshSlots[] _Values = new AshSlots[64];
+    private static int _Size = 0;
+
+    private static final long SWEEP_MILLIS = 60000;
+    private static volatile long _NextSweep = 0;
+
+    private final long _ContainerId;
+    private Item[] _Stacks = new Item[4];
+    private int _StackCount = 0;
+
+    // Ash kept in memory by AshWrites until the next flush.
+    Item _Container;
+    int _PendingGrams = 0;
+    float _PendingQuality = 0f; // Sum of QL * grams.
+    int _PendingStackLimit = 0;
+    boolean _Queued = false;
+
+    // When AshAccrual last settled the ash of the fire, and whether it was lit then.
+    long _SettledAt = 0L;
+    boolean _Seen = false;
+    int _Producer = 0;
+    boolean _Lit = false;
+    boolean _Accruing = false;
+
+    // The container was destroyed, its pending ash goes with it.
+    boolean _Destroyed = false;
+
+    private AshSlots(long containerId) {
+        _ContainerId = containerId;
+    }
+
+    /**
+     * Number of ash stacks in the container.
+     */
+    public int StackCount() {
+        return _StackCount;
+    }
+
+    /**
+     * Ash stack at the given index, the stack's own weight is its fill level.
+     */
+    public Item Stack(int index) {
+        return _Stacks[index];
+    }
+
+    /**
+     * Grams of ash the first stackLimit stacks, and the stacks that can
+     * still be created, take before they're full.
+     */
+    public int Room(int stackLimit) {
+        int room = 0;
+        int stacks = Math.min(_StackCount, stackLimit);
+
+        for (int i = 0; i < stacks; i++)
+            room += Math.max(0, MAX_ASH_WEIGHT - _Stacks[i].getWeightGrams());
+
+        return room + Math.max(0, stackLimit - _StackCount) * MAX_ASH_WEIGHT;
+    }
+
+    /**
+     * Adds ash to the container's stacks, like a single tick always did.
+     * 
+     * Non-full stacks are filled in order, the ash QL is the weighted average
+     * of the stack and the added ash. If a non-full stack is found past the
+     * stack limit, the ash goes to waste. What's left after that creates new
+     * stacks, while the container is below the stack limit and has less than
+     * 100 items.
+     * 
+     * Returns the number of database writes on existing stacks, so
+     * AshWrites can tell how many it saved.
+     */
+    public int Fill(Item container, int grams, float quality, int stackLimit) {
+        int writes = 0;
+        int stacks = 0;
+        
+        for (int i = 0; i < _StackCount && grams > 0; i++) {
+            Item stack = _Stacks[i];
+            int weight = stack.getWeightGrams();
+            stacks++;
+            
+            if (weight >= MAX_ASH_WEIGHT)
+                continue;
+            
+            if (stacks > stackLimit)
+                return writes;
+            
+            int added = Math.min(grams, MAX_ASH_WEIGHT - weight);
+            float newQuality = (stack.getCurrentQualityLevel() * weight + quality * added) / (weight + added);
+            stack.setWeight(weight + added, true);
+            stack.setQualityLevel(newQuality);
+            stack.setDamage(0.0f);
+            writes += 3;
+            grams -= added;
+        }
+        
+        // The index picks up new stacks through the Item.addItem hook.
+        while (grams > 0 && stacks < stackLimit && container.getItems().size() < MAX_CONTAINER_ITEMS) {
+            int weight = Math.min(MAX_ASH_WEIGHT, grams);
+            
+            try {
+                Item ash = ItemFactory.createItem(ASH_TEMPLATE_ID, quality, null);
+                if (ash.getWeightGrams() != weight)
+                    ash.setWeight(weight, true);
+                
+                if (!container.insertItem(ash, true)) {
+                    Items.destroyItem(ash.getWurmId());
+                    break;
+                }
+            } catch (FailedException | NoSuchTemplateException ex) {
+                _Logger.log(Level.WARNING, "Ash could not be created.", ex);
+                break;
+            }
+            
+            stacks++;
+            grams -= weight;
+        }
+        
+        return writes;
+    }
+
+    /**
+     * Returns the ash slots of the container, builds them on first use, or
+     * when an indexed stack was moved out by something that bypassed the hooks.
+     */
+    public static synchronized AshSlots Get(Item container) {
+        long containerId = container.getWurmId();
+        AshSlots slots = Find(containerId);
+
+        if (slots == null) {
+            slots = new AshSlots(containerId);
+            slots.Rebuild(container);
+            Put(containerId, slots);
+        }
+        else if (!slots.IsValid())
+            slots.Rebuild(container);
+        
+        slots._Container = container;
+        return slots;
+    }
+
+    /**
+     * Called after an item was added to an ash producing container.
+     */
+    public static synchronized void Added(Item container, Item item) {
+        AshSlots slots = Find(container.getWurmId());
+
+        // Not indexed yet, the first tick reads the contents anyway.
+        if (slots != null)
+            slots.Add(item);
+    }
+
+    /**
+     * Called after an item was removed from an ash producing container.
+     */
+    public static synchronized void Removed(Item container, Item item) {
+        AshSlots slots = Find(container.getWurmId());
+
+        if (slots != null)
+            slots.Remove(item);
+    }
+
+    /**
+     * Whether the container still exists, checked before pending ash is
+     * written, since the sweep may not have seen it destroyed yet.
+     */
+    static boolean Exists(AshSlots slots) {
+        try {
+            Items.getItem(slots._ContainerId);
+            return true;
+        } catch (NoSuchItemException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Forgets the containers that were destroyed, once the sweep interval
+     * has passed.
+     */
+    public static void Sweep() {
+        Sweep(System.currentTimeMillis());
+    }
+
+    /**
+     * Like Sweep, with the time given.
+     */
+    public static void Sweep(long now) {
+        // Most polls stop here, without taking the lock.
+        if (now < _NextSweep)
+            return;
+
+        ArrayList<AshSlots> destroyed = new ArrayList<>();
+
+        synchronized (AshSlots.class) {
+            if (now < _NextSweep)
+                return;
+
+            _NextSweep = now + SWEEP_MILLIS;
+
+            for (AshSlots slots : _Values)
+                if (slots != null && !Exists(slots))
+                    destroyed.add(slots);
+
+            for (AshSlots slots : destroyed) {
+                Delete(slots._ContainerId);
+                slots._Destroyed = true;
+                slots._Container = null;
+                Arrays.fill(slots._Stacks, 0, slots._StackCount, null);
+                slots._StackCount = 0;
+            }
+        }
+
+        for (AshSlots slots : destroyed)
+            AshAccrual.Forget(slots);
+    }
+
+    private void Add(Item item) {
+        if (item.getTemplateId() != ASH_TEMPLATE_ID)
+            return;
+
+        for (int i = 0; i < _StackCount; i++)
+            if (_Stacks[i] == item)
+                return;
+
+        if (_StackCount == _Stacks.length)
+            _Stacks = Arrays.copyOf(_Stacks, _StackCount * 2);
+
+        _Stacks[_StackCount++] = item;
+    }
+
+    private void Remove(Item item) {
+        for (int i = 0; i < _StackCount; i++) {
+            if (_Stacks[i] == item) {
+                _Stacks[i] = _Stacks[--_StackCount];
+                _Stacks[_StackCount] = null;
+                return;
+            }
+        }
+    }
+
+    private void Rebuild(Item container) {
+        Arrays.fill(_Stacks, 0, _StackCount, null);
+        _StackCount = 0;
+        
+        for (Item item : container.getItems())
+            Add(item);
+    }
+
+    private boolean IsValid() {
+        for (int i = 0; i < _StackCount; i++)
+            if (_Stacks[i].getParentId() != _ContainerId)
+                return false;
+
+        return true;
+    }
+
+    private static AshSlots Find(long key) {
+        int mask = _Keys.length - 1;
+
+        for (int i = Hash(key) & mask; _Values[i] != null; i = (i + 1) & mask)
+            if (_Keys[i] == key)
+                return _Values[i];
+
+        return null;
+    }
+
+    private static void Put(long key, AshSlots value) {
+        // Keeps the table at most half full, so probe chains stay short.
+        if ((_Size + 1) * 2 > _Keys.length)
+            Resize(_Keys.length * 2);
+
+        int mask = _Keys.length - 1;
+        int i = Hash(key) & mask;
+
+        while (_Values[i] != null) {
+            if (_Keys[i] == key) {
+                _Values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        _Keys[i] = key;
+        _Values[i] = value;
+        _Size++;
+    }
+
+    /**
+     * Removes the key, and moves the entries after it in the probe chain back
+     * into the gap, so lookups never stop early at it.
+     */
+    private static AshSlots Delete(long key) {
+        int mask = _Keys.length - 1;
+        int i = Hash(key) & mask;
+
+        while (_Values[i] != null && _Keys[i] != key)
+            i = (i + 1) & mask;
+
+        AshSlots removed = _Values[i];
+
+        if (removed == null)
+            return null;
+
+        for (int j = (i + 1) & mask; _Values[j] != null; j = (j + 1) & mask) {
+            int home = Hash(_Keys[j]) & mask;
+
+            // Entries whose home slot lies after the gap stay where they are.
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+                continue;
+
+            _Keys[i] = _Keys[j];
+            _Values[i] = _Values[j];
+            i = j;
+        }
+
+        _Keys[i] = 0L;
+        _Values[i] = null;
+        _Size--;
+        return removed;
+    }
+
+    private static void Resize(int capacity) {
+        long[] oldKeys = _Keys;
+        AshSlots[] oldValues = _Values;
+
+        _Keys = new long[capacity];
+        _Values = new AshSlots[capacity];
+        _Size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldValues[i] != null)
+                Put(oldKeys[i], oldValues[i]);
+    }
+
+    private static int Hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,127 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.items.Item;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps ash growth in memory and writes it to the database in batches.
+ *
+ * Every won roll would otherwise write the weight, QL and damage of an ash
+ * stack, about 64 writes with ashAmount=1 to fill one 6.40 kg stack. Pending
+ * ash is written on the configured interval, when the container is opened,
+ * when the pending ash would fill the container's stacks, and on shutdown.
+ */
+public final class AshWrites {
+    private static final Logger _Logger = Logger.getLogger(AshWrites.class.getName());
+
+    // Writes a won roll costs when it goes straight to an ash stack.
+    private static final int WRITES_PER_TICK = 3;
+
+    private static final ArrayList<AshSlots> _Queue = new ArrayList<>();
+    private static long _IntervalMillis = 60000;
+    private static long _NextFlush = 0;
+
+    private static long _WritesDeferred = 0;
+    private static long _WritesDone = 0;
+
+    private AshWrites() {
+    }
+
+    public static void SetInterval(int seconds) {
+        _IntervalMillis = seconds * 1000L;
+    }
+
+    /**
+     * Number of database writes saved so far.
+     */
+    public static synchronized long WritesAvoided() {
+        return _WritesDeferred - _WritesDone;
+    }
+
+    /**
+     * Keeps a won roll's ash in memory instead of writing it.
+     */
+    public static synchronized void Defer(Item container, int grams, int stackLimit) {
+        AshSlots slots = AshSlots.Get(container);
+
+        slots._PendingGrams += grams;
+        slots._PendingQuality += container.getCurrentQualityLevel() * grams;
+        slots._PendingStackLimit = stackLimit;
+        _WritesDeferred += WRITES_PER_TICK;
+
+        if (!slots._Queued) {
+            slots._Queued = true;
+            _Queue.add(slots);
+        }
+
+        if (slots._PendingGrams >= slots.Room(stackLimit))
+            Write(slots);
+    }
+
+    /**
+     * Writes the pending ash of the container, if there is any.
+     */
+    public static synchronized void Flush(Item container) {
+        AshSlots slots = AshSlots.Get(container);
+
+        if (slots._PendingGrams > 0)
+            Write(slots);
+    }
+
+    /**
+     * Writes all pending ash once the interval has passed.
+     */
+    public static void Poll() {
+        Poll(System.currentTimeMillis());
+    }
+
+    /**
+     * Like Poll, with the time given, e.g. by AshSimulator.
+     */
+    public static synchronized void Poll(long now) {
+        if (now < _NextFlush)
+            return;
+
+        _NextFlush = now + _IntervalMillis;
+        FlushAll();
+
+        _Logger.log(Level.FINE, "Ash writes avoided so far: {0}.", WritesAvoided());
+    }
+
+    /**
+     * Writes all pending ash, e.g. before the server shuts down.
+     */
+    public static synchronized void FlushAll() {
+        for (AshSlots slots : _Queue) {
+            if (slots._PendingGrams > 0)
+                Write(slots);
+            slots._Queued = false;
+        }
+
+        _Queue.clear();
+    }
+
+    /**
+     * Writes all pending ash and reports the saved writes, before shutdown.
+     */
+    public static synchronized void Shutdown() {
+        FlushAll();
+        _Logger.log(Level.INFO, "Ash writes avoided since server start: {0}.", WritesAvoided());
+    }
+
+    private static void Write(AshSlots slots) {
+        int grams = slots._PendingGrams;
+        float quality = slots._PendingQuality / grams;
+        slots._PendingGrams = 0;
+        slots._PendingQuality = 0f;
+
+        if (slots._Destroyed || !AshSlots.Exists(slots))
+            return;
+
+        // Revalidates the stacks, they may have moved since the ash was deferred.
+        AshSlots.Get(slots._Container);
+        _WritesDone += slots.Fill(slots._Container, grams, quality, slots._PendingStackLimit);
+    }
+}
@@ -0,0 +1,101 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.DbConnector;
+import com.wurmonline.server.WurmId;
+import com.wurmonline.server.players.Permissions;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Places Courier enchants on the mailboxes that were created before the mod
+ * was installed.
+ *
+ * Runs before the items are loaded, so the loaded mailboxes already have
+ * the enchant and nothing in memory needs fixing up. Mailboxes are read in
+ * pages ordered by wurm ID, the enchants and permission bits of a page are
+ * written as two batches, and everything is one transaction. Mailboxes that
+ * already have a Courier are never selected, so running it again does
+ * nothing.
+ */
+public final class CourierRetrofit {
+    private static final Logger _Logger = Logger.getLogger(CourierRetrofit.class.getName());
+
+    private static final byte COURIER = 20;
+    private static final int TIME_LEFT = 20000000;
+    private static final int PAGE_SIZE = 500;
+
+    private static final String SELECT = "SELECT WURMID FROM ITEMS WHERE TEMPLATEID BETWEEN 510 AND 513 AND WURMID > ?"
+            + " AND NOT EXISTS (SELECT 1 FROM SPELLEFFECTS WHERE SPELLEFFECTS.ITEMID = ITEMS.WURMID AND SPELLEFFECTS.TYPE = " + COURIER + ")"
+            + " ORDER BY WURMID LIMIT " + PAGE_SIZE;
+    private static final String INSERT_EFFECT = "INSERT INTO SPELLEFFECTS (WURMID, ITEMID, TYPE, POWER, TIMELEFT) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_SETTINGS = "UPDATE ITEMS SET SETTINGS = SETTINGS | ? WHERE WURMID = ?";
+
+    private CourierRetrofit() {
+    }
+
+    public static void Run(float enchantPower) {
+        long start = System.currentTimeMillis();
+        int courierBit = 1 << Permissions.Allow.HAS_COURIER.getBit();
+        int enchanted = 0;
+        long[] page = new long[PAGE_SIZE];
+
+        try {
+            Connection connection = DbConnector.getItemDbCon();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement select = connection.prepareStatement(SELECT);
+                    PreparedStatement insertEffect = connection.prepareStatement(INSERT_EFFECT);
+                    PreparedStatement updateSettings = connection.prepareStatement(UPDATE_SETTINGS)) {
+                long lastId = Long.MIN_VALUE;
+
+                while (true) {
+                    int count = 0;
+                    select.setLong(1, lastId);
+
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next())
+                            page[count++] = resultSet.getLong(1);
+                    }
+
+                    if (count == 0)
+                        break;
+
+                    for (int i = 0; i < count; i++) {
+                        insertEffect.setLong(1, WurmId.getNextSpellId());
+                        insertEffect.setLong(2, page[i]);
+                        insertEffect.setByte(3, COURIER);
+                        insertEffect.setFloat(4, enchantPower);
+                        insertEffect.setInt(5, TIME_LEFT);
+                        insertEffect.addBatch();
+
+                        updateSettings.setInt(1, courierBit);
+                        updateSettings.setLong(2, page[i]);
+                        updateSettings.addBatch();
+                    }
+
+                    insertEffect.executeBatch();
+                    updateSettings.executeBatch();
+                    enchanted += count;
+                    lastId = page[count - 1];
+                }
+
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException ex) {
+            Logger.getLogger(CourierRetrofit.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+
+        _Logger.log(Level.INFO, String.format("Placed Courier enchants on %d existing mailboxes in %d ms.", enchanted, System.currentTimeMillis() - start));
+    }
+}
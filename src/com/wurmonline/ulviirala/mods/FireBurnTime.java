@@ -1,5 +1,6 @@
 package com.wurmonline.ulviirala.mods;
 
+import com.wurmonline.server.creatures.Communicator;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,7 +14,9 @@ import javassist.expr.ExprEditor;
 import javassist.expr.MethodCall;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
 import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
+import org.gotti.wurmunlimited.modloader.interfaces.PlayerMessageListener;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
+import org.gotti.wurmunlimited.modloader.interfaces.ServerPollListener;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
 /**
@@ -21,7 +24,7 @@ import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
  * Displays an estimate of the remaining burn time of a fire before it drops
  * down to a certain temperature.
  */
-public class FireBurnTime implements WurmServerMod, PreInitable, Configurable {
+public class FireBurnTime implements WurmServerMod, PreInitable, Configurable, ServerPollListener, PlayerMessageListener {
     private static final Logger _Logger = Logger.getLogger(FireBurnTime.class.getName());
     
     /**
@@ -38,6 +41,38 @@ public class FireBurnTime implements WurmServerMod, PreInitable, Configurable {
      */
     public int _TargetTemperature = 5000;
     
+    /**
+     * Estimates every temperature band the fire is still above, instead of
+     * only the target temperature.
+     */
+    public boolean _AllTemperatures = false;
+    
+    /**
+     * Keeps lit fires in an index ordered by when they cool down to the
+     * target temperature, tells owners when they do, and lets GMs list the
+     * first ones with /fires.
+     */
+    public boolean _FireNotifications = false;
+    public int _FiresListed = 10;
+    
+    /**
+     * Lets players get the estimates for all fires within a radius with
+     * /firesnear, see FireGrid.
+     */
+    public boolean _FiresNear = false;
+    public int _FiresNearRadius = 10;
+    
+    /**
+     * Samples how fast every Nth fire really cools, see FireTelemetry, and
+     * the cooling formula's coefficients, which FireCoolingFit fits to it.
+     */
+    public boolean _FireTelemetry = false;
+    public int _TelemetryRate = 10;
+    public float _CoolingOutside = 1.0f;
+    public float _CoolingUnderRoof = 0.75f;
+    public float _CoolingInRain = 2f;
+    public double _CoolingRarity = 0.8999999761581421;
+    
     @Override
     public void preInit() {
         _Logger.info("Initialising FireBurnTime 1.4.1");
@@ -57,32 +92,27 @@ public class FireBurnTime implements WurmServerMod, PreInitable, Configurable {
                 public void edit(MethodCall methodCall) throws CannotCompileException {
                     if (methodCall.getMethodName().equals("sendEnchantmentStrings")) {
                         ctMethod.insertAt(methodCall.getLineNumber(), 
-                        "{" +
-                            "float coolingSpeed = 1.0f;"+
-                            "com.wurmonline.server.zones.VolaTile forgeTile = com.wurmonline.server.zones.Zones.getTileOrNull(target.getTilePos(), target.isOnSurface());"+
-                            "if (forgeTile != null && forgeTile.getStructure() != null)"+
-                            "    coolingSpeed *= 0.75f;"+
-                            "else if (com.wurmonline.server.Server.getWeather().getRain() > 0.2f)"+
-                            "    coolingSpeed *= 2f;"+
-
-                            "if (target.getRarity() > 0)"+
-                            "    coolingSpeed *= Math.pow(0.8999999761581421, (double)target.getRarity());"+
-
-                            "float decreaseTemperature = coolingSpeed * Math.max(1f, 11f - Math.max(1f, 20f * Math.max(30f, target.getCurrentQualityLevel()) / 200f));"+
-                            "int secondsRemaining = Math.round(Math.max(0, target.getTemperature() - " + _TargetTemperature + ") / decreaseTemperature);"+
-                                
-                            "if (" + _TargetTemperature + " > 8999) performer.getCommunicator().sendNormalServerMessage(\"It will burn steadily for about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else if (" + _TargetTemperature + " > 6999) performer.getCommunicator().sendNormalServerMessage(\"It will have much unburnt material for about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else if (" + _TargetTemperature + " > 4999) performer.getCommunicator().sendNormalServerMessage(\"It will not start to fade for about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else if (" + _TargetTemperature + " > 3999) performer.getCommunicator().sendNormalServerMessage(\"It will have a few dancing flames in about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else if (" + _TargetTemperature + " > 1999) performer.getCommunicator().sendNormalServerMessage(\"It will have a bed of red glowing coals in about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else if (" + _TargetTemperature + " > 999) performer.getCommunicator().sendNormalServerMessage(\"It will be a layer of ash in about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                            "else performer.getCommunicator().sendNormalServerMessage(\"It will be completely cold in about \" + secondsRemaining / 60 + \" minutes and \" + secondsRemaining % 60 + \" seconds.\");"+
-                        "}"
-                        );
+                            "{ com.wurmonline.ulviirala.mods.FireCooling.Examine(performer, target, " + _TargetTemperature + ", " + _AllTemperatures + "); }");
                     }
                 }
             });
+            
+            FireCooling.SetCoefficients(_CoolingOutside, _CoolingUnderRoof, _CoolingInRain, _CoolingRarity);
+            
+            if (_FireNotifications || _FireTelemetry || _FiresNear) {
+                FireExpiry.SetTargetTemperature(_TargetTemperature);
+                FireTelemetry.SetRate(_TelemetryRate);
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item").getMethod("coolOutSideItem", "(ZZ)V")
+                        .insertAfter("{ if (this.isFire()) {"
+                                + (_FireNotifications ? " com.wurmonline.ulviirala.mods.FireExpiry.Tick(this);" : "")
+                                + (_FireTelemetry ? " com.wurmonline.ulviirala.mods.FireTelemetry.Tick(this);" : "")
+                                + (_FiresNear ? " com.wurmonline.ulviirala.mods.FireGrid.Tick(this);" : "")
+                                + " } }");
+            }
+            
+            if (_FireTelemetry)
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.Server").getDeclaredMethod("shutDown")
+                        .insertBefore("{ com.wurmonline.ulviirala.mods.FireTelemetry.Write(); }");
         } catch (CannotCompileException | NotFoundException ex) {
             _Logger.severe("FireBurnTime 1.4.1 could not be applied.");
             _Logger.log(Level.SEVERE, null, ex);
@@ -92,6 +122,67 @@ public class FireBurnTime implements WurmServerMod, PreInitable, Configurable {
     @Override
     public void configure(Properties properties) {
         _TargetTemperature = Math.max(200, Math.min(9000, Integer.valueOf(properties.getProperty("targetTemperature", String.valueOf(_TargetTemperature)))));
-        _Logger.log(Level.INFO, String.format("Burn time estimation will be for %d temperature.", _TargetTemperature));
+        _AllTemperatures = Boolean.valueOf(properties.getProperty("allTemperatures", String.valueOf(_AllTemperatures)));
+        
+        if (_AllTemperatures)
+            _Logger.log(Level.INFO, "Burn time estimation will be for all temperatures.");
+        else
+            _Logger.log(Level.INFO, String.format("Burn time estimation will be for %d temperature.", _TargetTemperature));
+        
+        _FireNotifications = Boolean.valueOf(properties.getProperty("fireNotifications", String.valueOf(_FireNotifications)));
+        _FiresListed = Math.max(1, Math.min(100, Integer.valueOf(properties.getProperty("firesListed", String.valueOf(_FiresListed)))));
+        
+        _FiresNear = Boolean.valueOf(properties.getProperty("firesNear", String.valueOf(_FiresNear)));
+        _FiresNearRadius = Math.max(1, Math.min(50, Integer.valueOf(properties.getProperty("firesNearRadius", String.valueOf(_FiresNearRadius)))));
+        
+        _FireTelemetry = Boolean.valueOf(properties.getProperty("fireTelemetry", String.valueOf(_FireTelemetry)));
+        _TelemetryRate = Math.max(1, Integer.valueOf(properties.getProperty("telemetryRate", String.valueOf(_TelemetryRate))));
+        _CoolingOutside = Math.max(0.01f, Float.valueOf(properties.getProperty("coolingOutside", String.valueOf(_CoolingOutside))));
+        _CoolingUnderRoof = Math.max(0.01f, Float.valueOf(properties.getProperty("coolingUnderRoof", String.valueOf(_CoolingUnderRoof))));
+        _CoolingInRain = Math.max(0.01f, Float.valueOf(properties.getProperty("coolingInRain", String.valueOf(_CoolingInRain))));
+        _CoolingRarity = Math.max(0.01, Math.min(1.0, Double.valueOf(properties.getProperty("coolingRarity", String.valueOf(_CoolingRarity)))));
+    }
+
+    @Override
+    public void onServerPoll() {
+        if (_FireNotifications)
+            FireExpiry.Poll();
+        
+        if (_FireTelemetry)
+            FireTelemetry.Poll();
+        
+        if (_FiresNear)
+            FireGrid.Poll();
+    }
+
+    @Override
+    public boolean onPlayerMessage(Communicator communicator, String message) {
+        if (_FireNotifications && message.equals("/fires") && communicator.getPlayer().getPower() > 0) {
+            FireExpiry.List(communicator, _FiresListed);
+            return true;
+        }
+        
+        // Players can ask for fewer tiles than the radius, not more.
+        if (_FiresNear && (message.equals("/firesnear") || message.startsWith("/firesnear "))) {
+            int radius = _FiresNearRadius;
+            
+            try {
+                if (message.length() > "/firesnear ".length())
+                    radius = Math.max(1, Math.min(_FiresNearRadius, Integer.valueOf(message.substring("/firesnear ".length()).trim())));
+            } catch (NumberFormatException ex) {
+                communicator.sendNormalServerMessage("Usage: /firesnear [tiles]");
+                return true;
+            }
+            
+            FireGrid.Report(communicator.getPlayer(), radius, _TargetTemperature);
+            return true;
+        }
+        
+        if (_FireTelemetry && message.equals("/firetelemetry") && communicator.getPlayer().getPower() > 0) {
+            FireTelemetry.Report(communicator);
+            return true;
+        }
+        
+        return false;
     }
 }
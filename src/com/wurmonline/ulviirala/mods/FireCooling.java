@@ -0,0 +1,178 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.Server;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.zones.VolaTile;
+import com.wurmonline.server.zones.Zones;
+
+/**
+ * The server's cooling formula for fires, computed once for every
+ * combination of QL, rarity and surroundings.
+ *
+ * A fire loses coolingSpeed * max(1, 11 - max(1, max(30, QL) / 10)) degrees
+ * a second. coolingSpeed is 0.75 under a roof, otherwise 2 in rain above
+ * 0.2, and shrinks by 0.9 per rarity level. The table holds that decrease
+ * for QL in steps of 0.1, the four rarities, and the three surroundings, so
+ * an estimate is a lookup and a division.
+ */
+public final class FireCooling {
+    static final int OUTSIDE = 0;
+    static final int UNDER_ROOF = 1;
+    static final int IN_RAIN = 2;
+
+    private static final int QUALITY_BUCKETS = 1001; // QL 0.0 - 100.0.
+    private static final int RARITIES = 4;
+    private static final float RAIN = 0.2f;
+
+    /**
+     * Lowest temperature of each band, hottest first, and what players are
+     * told about reaching it.
+     */
+    private static final int[] BANDS = { 9000, 7000, 5000, 4000, 2000, 1000 };
+    private static final String[] MESSAGES = {
+        "It will burn steadily for about ",
+        "It will have much unburnt material for about ",
+        "It will not start to fade for about ",
+        "It will have a few dancing flames in about ",
+        "It will have a bed of red glowing coals in about ",
+        "It will be a layer of ash in about "
+    };
+    private static final String COLD_MESSAGE = "It will be completely cold in about ";
+
+    // The formula's coefficients, configurable so they can follow fitted
+    // telemetry, see FireTelemetry.
+    private static float _Outside = 1.0f;
+    private static float _UnderRoof = 0.75f;
+    private static float _InRain = 2f;
+    private static double _Rarity = 0.8999999761581421;
+
+    private static float[] _Decrease = Build();
+
+    private FireCooling() {
+    }
+
+    /**
+     * Replaces the coefficients and rebuilds the table.
+     */
+    public static void SetCoefficients(float outside, float underRoof, float inRain, double rarity) {
+        _Outside = outside;
+        _UnderRoof = underRoof;
+        _InRain = inRain;
+        _Rarity = rarity;
+        _Decrease = Build();
+    }
+
+    private static float[] Build() {
+        float[] decrease = new float[RARITIES * 3 * QUALITY_BUCKETS];
+
+        for (int rarity = 0; rarity < RARITIES; rarity++)
+            for (int surroundings = OUTSIDE; surroundings <= IN_RAIN; surroundings++)
+                for (int bucket = 0; bucket < QUALITY_BUCKETS; bucket++)
+                    decrease[(rarity * 3 + surroundings) * QUALITY_BUCKETS + bucket] = Compute(bucket / 10f, rarity, surroundings);
+
+        return decrease;
+    }
+
+    /**
+     * Degrees the fire loses each second, straight from the formula. Kept
+     * for rarities the table doesn't cover.
+     */
+    static float Compute(float quality, int rarity, int surroundings) {
+        float coolingSpeed = _Outside;
+
+        if (surroundings == UNDER_ROOF)
+            coolingSpeed *= _UnderRoof;
+        else if (surroundings == IN_RAIN)
+            coolingSpeed *= _InRain;
+
+        if (rarity > 0)
+            coolingSpeed *= Math.pow(_Rarity, (double)rarity);
+
+        return coolingSpeed * Base(quality);
+    }
+
+    /**
+     * The QL part of the formula, which the coefficients scale.
+     */
+    static float Base(float quality) {
+        return Math.max(1f, 11f - Math.max(1f, 20f * Math.max(30f, quality) / 200f));
+    }
+
+    /**
+     * Whether the fire is under a roof, in rain, or neither.
+     */
+    static int Surroundings(Item fire) {
+        return Surroundings(fire, Raining());
+    }
+
+    static int Surroundings(Item fire, boolean raining) {
+        VolaTile tile = Zones.getTileOrNull(fire.getTilePos(), fire.isOnSurface());
+
+        if (tile != null && tile.getStructure() != null)
+            return UNDER_ROOF;
+        else if (raining)
+            return IN_RAIN;
+
+        return OUTSIDE;
+    }
+
+    static boolean Raining() {
+        return Server.getWeather().getRain() > RAIN;
+    }
+
+    /**
+     * Degrees the fire loses each second where it stands now.
+     */
+    public static float Decrease(Item fire) {
+        return Decrease(fire.getCurrentQualityLevel(), fire.getRarity(), Surroundings(fire));
+    }
+
+    static float Decrease(float quality, int rarity, int surroundings) {
+        if (rarity < 0 || rarity >= RARITIES)
+            return Compute(quality, rarity, surroundings);
+
+        int bucket = Math.max(0, Math.min(QUALITY_BUCKETS - 1, (int)(quality * 10f)));
+        return _Decrease[(rarity * 3 + surroundings) * QUALITY_BUCKETS + bucket];
+    }
+
+    /**
+     * Seconds until the fire is down to the target temperature.
+     */
+    static int SecondsUntil(int temperature, int targetTemperature, float decrease) {
+        return Math.round(Math.max(0, temperature - targetTemperature) / decrease);
+    }
+
+    /**
+     * Tells the performer how long until the fire is down to the target
+     * temperature, or with allTemperatures, to each band it's still above.
+     */
+    public static void Examine(Creature performer, Item fire, int targetTemperature, boolean allTemperatures) {
+        float decrease = Decrease(fire);
+        int temperature = fire.getTemperature();
+
+        if (!allTemperatures) {
+            Send(performer, Message(targetTemperature), SecondsUntil(temperature, targetTemperature, decrease));
+            return;
+        }
+
+        for (int band = 0; band < BANDS.length; band++)
+            if (temperature > BANDS[band])
+                Send(performer, MESSAGES[band], SecondsUntil(temperature, BANDS[band], decrease));
+    }
+
+    /**
+     * What players are told about reaching the target temperature.
+     */
+    static String Message(int targetTemperature) {
+        for (int band = 0; band < BANDS.length; band++)
+            if (targetTemperature >= BANDS[band])
+                return MESSAGES[band];
+
+        return COLD_MESSAGE;
+    }
+
+    private static void Send(Creature performer, String message, int seconds) {
+        performer.getCommunicator().sendNormalServerMessage(message + seconds / 60 + " minutes and " + seconds % 60 + " seconds.");
+    }
+}
@@ -0,0 +1,149 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.Players;
+import com.wurmonline.server.creatures.Communicator;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.players.Player;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Lit fires ordered by when they are predicted to cool down to the target
+ * temperature, using the same model as the examine estimate.
+ *
+ * Fires are updated from their cooling ticks, but while a fire cools as
+ * predicted its expiry doesn't move, so it's only re-sorted when fuel is
+ * added or its surroundings change. The owner is told once when the fire
+ * drops to the target temperature. Fires that stop ticking, because they
+ * were destroyed or picked up, are swept out every minute.
+ */
+public final class FireExpiry {
+    // Predictions that moved less than this keep their place.
+    private static final long TOLERANCE_MILLIS = 30000;
+    private static final long STALE_MILLIS = 60000;
+
+    private static final TreeSet<Fire> _Fires = new TreeSet<>();
+    private static final HashMap<Long, Fire> _ById = new HashMap<>();
+    private static int _TargetTemperature = 5000;
+    private static long _NextSweep = 0;
+
+    private FireExpiry() {
+    }
+
+    public static void SetTargetTemperature(int targetTemperature) {
+        _TargetTemperature = targetTemperature;
+    }
+
+    private static final class Fire implements Comparable<Fire> {
+        final long _WurmId;
+        final String _Name;
+        long _OwnerId;
+        long _Expiry;
+        long _LastTick;
+        int _TileX;
+        int _TileY;
+
+        Fire(Item item) {
+            _WurmId = item.getWurmId();
+            _Name = item.getName();
+        }
+
+        @Override
+        public int compareTo(Fire other) {
+            int order = Long.compare(_Expiry, other._Expiry);
+            return order != 0 ? order : Long.compare(_WurmId, other._WurmId);
+        }
+    }
+
+    /**
+     * Called after a fire's cooling tick.
+     */
+    public static synchronized void Tick(Item item) {
+        long now = System.currentTimeMillis();
+        Fire fire = _ById.get(item.getWurmId());
+        int temperature = item.getTemperature();
+
+        if (temperature <= _TargetTemperature) {
+            if (fire != null) {
+                _Fires.remove(fire);
+                _ById.remove(fire._WurmId);
+                Notify(fire);
+            }
+            return;
+        }
+
+        int seconds = FireCooling.SecondsUntil(temperature, _TargetTemperature, FireCooling.Decrease(item));
+        long expiry = now + seconds * 1000L;
+
+        if (fire == null) {
+            fire = new Fire(item);
+            fire._Expiry = expiry;
+            _ById.put(fire._WurmId, fire);
+            _Fires.add(fire);
+        }
+        else if (Math.abs(expiry - fire._Expiry) >= TOLERANCE_MILLIS) {
+            // The set is sorted by expiry, so it's taken out while it changes.
+            _Fires.remove(fire);
+            fire._Expiry = expiry;
+            _Fires.add(fire);
+        }
+
+        fire._OwnerId = item.getLastOwnerId();
+        fire._LastTick = now;
+        fire._TileX = item.getTileX();
+        fire._TileY = item.getTileY();
+    }
+
+    /**
+     * Drops fires that haven't ticked for a while.
+     */
+    public static synchronized void Poll() {
+        long now = System.currentTimeMillis();
+
+        if (now < _NextSweep)
+            return;
+
+        _NextSweep = now + STALE_MILLIS;
+
+        for (Iterator<Fire> iterator = _Fires.iterator(); iterator.hasNext();) {
+            Fire fire = iterator.next();
+
+            if (now - fire._LastTick > STALE_MILLIS) {
+                iterator.remove();
+                _ById.remove(fire._WurmId);
+            }
+        }
+    }
+
+    /**
+     * Lists the fires that will cool down soonest, reads only as many as
+     * are shown.
+     */
+    public static synchronized void List(Communicator communicator, int count) {
+        long now = System.currentTimeMillis();
+        ArrayList<String> lines = new ArrayList<>();
+
+        for (Fire fire : _Fires) {
+            if (lines.size() >= count)
+                break;
+
+            long seconds = Math.max(0, (fire._Expiry - now) / 1000);
+            lines.add(String.format("%s at %d, %d in %d minutes and %d seconds.", fire._Name, fire._TileX, fire._TileY, seconds / 60, seconds % 60));
+        }
+
+        communicator.sendNormalServerMessage(String.format("%d lit fires above %d, the first %d to cool down:", _Fires.size(), _TargetTemperature, lines.size()));
+
+        for (String line : lines)
+            communicator.sendNormalServerMessage(line);
+    }
+
+    private static void Notify(Fire fire) {
+        Player owner = Players.getInstance().getPlayerOrNull(fire._OwnerId);
+
+        if (owner != null)
+            owner.getCommunicator().sendNormalServerMessage(String.format("Your %s at %d, %d has cooled down to %d.",
+                    fire._Name, fire._TileX, fire._TileY, _TargetTemperature));
+    }
+}
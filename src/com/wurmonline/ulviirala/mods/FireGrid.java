@@ -0,0 +1,151 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.creatures.Communicator;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Lit fires by where they stand, in cells of 16 x 16 tiles, so the fires
+ * around a player are found by looking at a few cells instead of every item.
+ *
+ * Fires are placed from their cooling ticks, and moved when a tick finds
+ * them in another cell. Fires that stop ticking are swept out every minute.
+ */
+public final class FireGrid {
+    private static final int CELL_SHIFT = 4;
+    private static final long STALE_MILLIS = 60000;
+    private static final int MAX_LINES = 20;
+
+    private static final HashMap<Long, ArrayList<Fire>> _Cells = new HashMap<>();
+    private static final HashMap<Long, Fire> _ById = new HashMap<>();
+    private static long _NextSweep = 0;
+
+    private FireGrid() {
+    }
+
+    private static final class Fire {
+        final Item _Item;
+        long _Cell;
+        long _LastTick;
+        int _Distance;
+
+        Fire(Item item) {
+            _Item = item;
+        }
+    }
+
+    /**
+     * Called after a fire's cooling tick.
+     */
+    public static synchronized void Tick(Item item) {
+        Fire fire = _ById.get(item.getWurmId());
+        long cell = Cell(item.getTileX() >> CELL_SHIFT, item.getTileY() >> CELL_SHIFT);
+
+        if (fire == null) {
+            fire = new Fire(item);
+            fire._Cell = cell;
+            _ById.put(item.getWurmId(), fire);
+            _Cells.computeIfAbsent(cell, key -> new ArrayList<>()).add(fire);
+        }
+        else if (fire._Cell != cell) {
+            Remove(fire);
+            fire._Cell = cell;
+            _Cells.computeIfAbsent(cell, key -> new ArrayList<>()).add(fire);
+        }
+
+        fire._LastTick = System.currentTimeMillis();
+    }
+
+    /**
+     * Drops fires that haven't ticked for a while.
+     */
+    public static synchronized void Poll() {
+        long now = System.currentTimeMillis();
+
+        if (now < _NextSweep)
+            return;
+
+        _NextSweep = now + STALE_MILLIS;
+
+        for (Iterator<Fire> iterator = _ById.values().iterator(); iterator.hasNext();) {
+            Fire fire = iterator.next();
+
+            if (now - fire._LastTick > STALE_MILLIS) {
+                iterator.remove();
+                Remove(fire);
+            }
+        }
+    }
+
+    /**
+     * Tells the performer how long the lit fires within radius tiles have
+     * until they are down to the target temperature, nearest first.
+     */
+    public static synchronized void Report(Creature performer, int radius, int targetTemperature) {
+        Communicator communicator = performer.getCommunicator();
+        int tileX = performer.getTileX();
+        int tileY = performer.getTileY();
+        boolean onSurface = performer.isOnSurface();
+        ArrayList<Fire> fires = new ArrayList<>();
+
+        for (int cellX = (tileX - radius) >> CELL_SHIFT; cellX <= (tileX + radius) >> CELL_SHIFT; cellX++) {
+            for (int cellY = (tileY - radius) >> CELL_SHIFT; cellY <= (tileY + radius) >> CELL_SHIFT; cellY++) {
+                ArrayList<Fire> cell = _Cells.get(Cell(cellX, cellY));
+
+                if (cell == null)
+                    continue;
+
+                for (Fire fire : cell) {
+                    Item item = fire._Item;
+                    fire._Distance = Math.max(Math.abs(item.getTileX() - tileX), Math.abs(item.getTileY() - tileY));
+
+                    if (fire._Distance <= radius && item.isOnSurface() == onSurface && item.getTemperature() > targetTemperature)
+                        fires.add(fire);
+                }
+            }
+        }
+
+        if (fires.isEmpty()) {
+            communicator.sendNormalServerMessage(String.format("There are no fires above %d within %d tiles.", targetTemperature, radius));
+            return;
+        }
+
+        fires.sort(Comparator.comparingInt(fire -> fire._Distance));
+
+        // The weather is the same for all of them.
+        boolean raining = FireCooling.Raining();
+        String message = FireCooling.Message(targetTemperature);
+
+        for (int i = 0; i < fires.size() && i < MAX_LINES; i++) {
+            Item item = fires.get(i)._Item;
+            float decrease = FireCooling.Decrease(item.getCurrentQualityLevel(), item.getRarity(), FireCooling.Surroundings(item, raining));
+            int seconds = FireCooling.SecondsUntil(item.getTemperature(), targetTemperature, decrease);
+
+            communicator.sendNormalServerMessage(String.format("%s, %d tiles away: %s%d minutes and %d seconds.",
+                    item.getName(), fires.get(i)._Distance, message, seconds / 60, seconds % 60));
+        }
+
+        if (fires.size() > MAX_LINES)
+            communicator.sendNormalServerMessage(String.format("And %d more.", fires.size() - MAX_LINES));
+    }
+
+    private static void Remove(Fire fire) {
+        ArrayList<Fire> cell = _Cells.get(fire._Cell);
+
+        if (cell == null)
+            return;
+
+        cell.remove(fire);
+
+        if (cell.isEmpty())
+            _Cells.remove(fire._Cell);
+    }
+
+    private static long Cell(int cellX, int cellY) {
+        return ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,173 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.creatures.Communicator;
+import com.wurmonline.server.items.Item;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how fast fires really cool and compares it with FireCooling.
+ *
+ * Every Nth fire is sampled. A sample is the temperature lost over a minute
+ * in which the fire kept cooling and stayed in the same surroundings, so
+ * refuelling, moving it, or rain starting throws the minute away. Each
+ * sample goes into a histogram of the prediction's error, and is appended
+ * to telemetry.csv, which FireCoolingFit turns into fitted coefficients.
+ */
+public final class FireTelemetry {
+    private static final Logger _Logger = Logger.getLogger(FireTelemetry.class.getName());
+
+    private static final long WINDOW_MILLIS = 60000;
+    private static final long WRITE_MILLIS = 600000;
+
+    // Error buckets of 5 %, from -50 % to +50 %, and one on each side for
+    // everything beyond.
+    private static final int BUCKET_PERCENT = 5;
+    private static final int BUCKETS = 20;
+
+    private static final HashMap<Long, Window> _Windows = new HashMap<>();
+    private static final long[] _Histogram = new long[BUCKETS + 2];
+    private static final ArrayList<String> _Pending = new ArrayList<>();
+    private static final Path _File = Paths.get("mods", "FireBurnTime", "telemetry.csv");
+    private static int _Rate = 10;
+    private static long _Samples = 0;
+    private static double _ErrorSum = 0;
+    private static long _NextWrite = 0;
+
+    private FireTelemetry() {
+    }
+
+    public static void SetRate(int rate) {
+        _Rate = rate;
+    }
+
+    private static final class Window {
+        long _Start;
+        long _LastTick;
+        int _StartTemperature;
+        int _LastTemperature;
+        float _Quality;
+        int _Rarity;
+        int _Surroundings;
+    }
+
+    /**
+     * Called after a fire's cooling tick.
+     */
+    public static synchronized void Tick(Item fire) {
+        long wurmId = fire.getWurmId();
+
+        if (Math.floorMod(wurmId * 0x9E3779B97F4A7C15L >>> 32, (long)_Rate) != 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        int temperature = fire.getTemperature();
+        int surroundings = FireCooling.Surroundings(fire);
+        Window window = _Windows.get(wurmId);
+
+        if (window == null) {
+            window = new Window();
+            _Windows.put(wurmId, window);
+            Start(window, fire, now, temperature, surroundings);
+        }
+        else if (temperature > window._LastTemperature || surroundings != window._Surroundings)
+            Start(window, fire, now, temperature, surroundings);
+        else if (now - window._Start >= WINDOW_MILLIS) {
+            // A fire that went out has stopped cooling, the minute is off.
+            if (temperature > 0) {
+                float measured = (window._StartTemperature - temperature) * 1000f / (now - window._Start);
+                Record(window, measured);
+            }
+            Start(window, fire, now, temperature, surroundings);
+        }
+
+        window._LastTemperature = temperature;
+        window._LastTick = now;
+    }
+
+    private static void Start(Window window, Item fire, long now, int temperature, int surroundings) {
+        window._Start = now;
+        window._StartTemperature = temperature;
+        window._Quality = fire.getCurrentQualityLevel();
+        window._Rarity = fire.getRarity();
+        window._Surroundings = surroundings;
+    }
+
+    private static void Record(Window window, float measured) {
+        float predicted = FireCooling.Decrease(window._Quality, window._Rarity, window._Surroundings);
+        double error = measured / predicted - 1.0;
+        int bucket = (int)Math.floor(error * 100 / BUCKET_PERCENT) + BUCKETS / 2 + 1;
+
+        _Histogram[Math.max(0, Math.min(BUCKETS + 1, bucket))]++;
+        _Samples++;
+        _ErrorSum += Math.abs(error);
+        _Pending.add(String.format(Locale.ROOT, "%.1f,%d,%d,%.4f", window._Quality, window._Rarity, window._Surroundings, measured));
+    }
+
+    /**
+     * Writes the samples so far to telemetry.csv every ten minutes, and
+     * drops fires that stopped ticking.
+     */
+    public static synchronized void Poll() {
+        long now = System.currentTimeMillis();
+
+        if (now < _NextWrite)
+            return;
+
+        _NextWrite = now + WRITE_MILLIS;
+
+        for (Iterator<Window> iterator = _Windows.values().iterator(); iterator.hasNext();)
+            if (now - iterator.next()._LastTick > WINDOW_MILLIS)
+                iterator.remove();
+
+        Write();
+    }
+
+    /**
+     * Writes what's left, before the server shuts down.
+     */
+    public static synchronized void Write() {
+        if (_Pending.isEmpty())
+            return;
+
+        try {
+            Files.createDirectories(_File.getParent());
+            Files.write(_File, _Pending, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            _Pending.clear();
+        } catch (IOException ex) {
+            _Logger.log(Level.WARNING, "Fire telemetry could not be written.", ex);
+        }
+    }
+
+    /**
+     * Sends the error histogram.
+     */
+    public static synchronized void Report(Communicator communicator) {
+        communicator.sendNormalServerMessage(String.format("%d samples, mean absolute error %.1f %%.",
+                _Samples, _Samples == 0 ? 0.0 : _ErrorSum * 100 / _Samples));
+
+        for (int bucket = 0; bucket < _Histogram.length; bucket++) {
+            if (_Histogram[bucket] == 0)
+                continue;
+
+            int from = (bucket - BUCKETS / 2 - 1) * BUCKET_PERCENT;
+
+            if (bucket == 0)
+                communicator.sendNormalServerMessage(String.format("below %d %%: %d", from + BUCKET_PERCENT, _Histogram[bucket]));
+            else if (bucket == BUCKETS + 1)
+                communicator.sendNormalServerMessage(String.format("%d %% and above: %d", from, _Histogram[bucket]));
+            else
+                communicator.sendNormalServerMessage(String.format("%d %% to %d %%: %d", from, from + BUCKET_PERCENT, _Histogram[bucket]));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.Items;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.endgames.EndGameItem;
+import com.wurmonline.server.endgames.EndGameItems;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.zones.VolaTile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where the aggressive creatures and the items that block founding a
+ * settlement are, in cells of 16 x 16 tiles, so a founding check only looks
+ * at the cells within its radius.
+ *
+ * Aggressive creatures are moved between cells by the hook on
+ * Creature.setCurrentTile, which every creature goes through when it's
+ * placed, changes tiles or leaves the world, so their grid is always
+ * current and never walks the creature list. Dominated and dead creatures
+ * are left out when a check looks at a cell, since that can change at any
+ * time.
+ *
+ * The items that block are the altars and the dens of the configured
+ * templates. Dens are tracked by hooks on item creation and
+ * Items.destroyItem, after one walk over all items at startup. Their grid
+ * is rebuilt every ten seconds and swapped in whole, so a check can be that
+ * far behind for them, and it only costs as much as there are dens.
+ */
+public final class FoundingGrid {
+    private static final int CELL_SHIFT = 4;
+    private static final long REBUILD_MILLIS = 10000;
+
+    private static final HashMap<Long, ArrayList<Creature>> _Creatures = new HashMap<>();
+    private static final HashMap<Long, Long> _CreatureCells = new HashMap<>();
+    private static volatile HashMap<Long, int[]> _Items = new HashMap<>();
+    private static HashSet<Integer> _DenTemplates = new HashSet<>();
+    private static final ConcurrentHashMap<Long, Item> _Dens = new ConcurrentHashMap<>();
+    private static boolean _DensLoaded = false;
+    private static long _NextRebuild = 0;
+
+    private FoundingGrid() {
+    }
+
+    public static void SetDenTemplates(HashSet<Integer> denTemplates) {
+        _DenTemplates = denTemplates;
+    }
+
+    /**
+     * Called by ItemCreationHooks for new items of the den templates.
+     */
+    public static void DenCreated(Item den) {
+        _Dens.put(den.getWurmId(), den);
+    }
+
+    /**
+     * Called before Items.destroyItem, for every item.
+     */
+    public static void Destroyed(long wurmId) {
+        _Dens.remove(wurmId);
+    }
+
+    /**
+     * Called before Creature.setCurrentTile for aggressive creatures, the
+     * tile is null when the creature leaves the world.
+     */
+    public static synchronized void CreatureMoved(Creature creature, VolaTile tile) {
+        Long cell = tile == null ? null : Cell(tile.getTileX() >> CELL_SHIFT, tile.getTileY() >> CELL_SHIFT);
+        Long oldCell = _CreatureCells.get(creature.getWurmId());
+
+        if (cell == null ? oldCell == null : cell.equals(oldCell))
+            return;
+
+        if (oldCell != null)
+            RemoveCreature(oldCell, creature.getWurmId());
+
+        if (cell == null)
+            _CreatureCells.remove(creature.getWurmId());
+        else {
+            _CreatureCells.put(creature.getWurmId(), cell);
+            _Creatures.computeIfAbsent(cell, key -> new ArrayList<>(4)).add(creature);
+        }
+    }
+
+    public static synchronized boolean CreatureNear(int tileX, int tileY, int radius) {
+        for (int cellX = (tileX - radius) >> CELL_SHIFT; cellX <= (tileX + radius) >> CELL_SHIFT; cellX++) {
+            for (int cellY = (tileY - radius) >> CELL_SHIFT; cellY <= (tileY + radius) >> CELL_SHIFT; cellY++) {
+                ArrayList<Creature> cell = _Creatures.get(Cell(cellX, cellY));
+
+                if (cell == null)
+                    continue;
+
+                for (Creature creature : cell)
+                    if (!creature.isDominated() && !creature.isDead()
+                            && Math.abs(creature.getTileX() - tileX) <= radius && Math.abs(creature.getTileY() - tileY) <= radius)
+                        return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean ItemNear(int tileX, int tileY, int radius) {
+        return Near(_Items, tileX, tileY, radius);
+    }
+
+    public static synchronized void Poll() {
+        long now = System.currentTimeMillis();
+
+        if (now < _NextRebuild)
+            return;
+
+        _NextRebuild = now + REBUILD_MILLIS;
+
+        // The dens that were loaded with the server, new ones come from the hooks.
+        if (!_DensLoaded && !_DenTemplates.isEmpty()) {
+            _DensLoaded = true;
+
+            for (Item item : Items.getAllItems())
+                if (_DenTemplates.contains(item.getTemplateId()))
+                    _Dens.put(item.getWurmId(), item);
+        }
+
+        Builder items = new Builder();
+
+        for (EndGameItem altar : new EndGameItem[] { EndGameItems.getGoodAltar(), EndGameItems.getEvilAltar() })
+            if (altar != null)
+                items.Add(altar.getItem().getTileX(), altar.getItem().getTileY());
+
+        for (Item den : _Dens.values())
+            if (den.isOnSurface())
+                items.Add(den.getTileX(), den.getTileY());
+
+        _Items = items.Build();
+    }
+
+    /**
+     * Whether any position in the grid is within radius tiles.
+     */
+    private static boolean Near(HashMap<Long, int[]> grid, int tileX, int tileY, int radius) {
+        for (int cellX = (tileX - radius) >> CELL_SHIFT; cellX <= (tileX + radius) >> CELL_SHIFT; cellX++) {
+            for (int cellY = (tileY - radius) >> CELL_SHIFT; cellY <= (tileY + radius) >> CELL_SHIFT; cellY++) {
+                int[] cell = grid.get(Cell(cellX, cellY));
+
+                if (cell == null)
+                    continue;
+
+                // The first entry is the count, then x and y of each.
+                for (int i = 1; i < 1 + cell[0] * 2; i += 2)
+                    if (Math.abs(cell[i] - tileX) <= radius && Math.abs(cell[i + 1] - tileY) <= radius)
+                        return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void RemoveCreature(long cell, long wurmId) {
+        ArrayList<Creature> creatures = _Creatures.get(cell);
+
+        if (creatures == null)
+            return;
+
+        creatures.removeIf(creature -> creature.getWurmId() == wurmId);
+
+        if (creatures.isEmpty())
+            _Creatures.remove(cell);
+    }
+
+    private static long Cell(int cellX, int cellY) {
+        return ((long)cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static final class Builder {
+        private final HashMap<Long, int[]> _Cells = new HashMap<>();
+
+        void Add(int tileX, int tileY) {
+            long key = Cell(tileX >> CELL_SHIFT, tileY >> CELL_SHIFT);
+            int[] cell = _Cells.get(key);
+
+            if (cell == null)
+                cell = new int[1 + 2 * 4];
+            else if (1 + cell[0] * 2 == cell.length)
+                cell = Arrays.copyOf(cell, 1 + cell[0] * 4);
+
+            cell[1 + cell[0] * 2] = tileX;
+            cell[2 + cell[0] * 2] = tileY;
+            cell[0]++;
+            _Cells.put(key, cell);
+        }
+
+        HashMap<Long, int[]> Build() {
+            return _Cells;
+        }
+    }
+}
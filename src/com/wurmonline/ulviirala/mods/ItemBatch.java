@@ -0,0 +1,67 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.DbConnector;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs everything one action writes to the item database in a single
+ * transaction, e.g. a mail send or a pick of many sprouts.
+ *
+ * Each item still writes its own rows, but they're committed once for the
+ * whole action, instead of once per statement. The action commits even when
+ * it fails halfway, since the items that were already written have changed
+ * in memory too.
+ */
+public final class ItemBatch {
+    private static Connection _Connection = null;
+    private static int _Depth = 0;
+
+    private ItemBatch() {
+    }
+
+    /**
+     * Called before the action, e.g. MailSendConfirmQuestion.answer.
+     */
+    public static synchronized void Begin() {
+        if (_Depth++ > 0)
+            return;
+
+        try {
+            Connection connection = DbConnector.getItemDbCon();
+
+            // Someone else already runs a transaction, it's theirs to commit.
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                _Connection = connection;
+            }
+        } catch (SQLException ex) {
+            Logger.getLogger(ItemBatch.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Called after the action, also when it threw.
+     */
+    public static synchronized void End() {
+        if (--_Depth > 0 || _Connection == null)
+            return;
+
+        Connection connection = _Connection;
+        _Connection = null;
+
+        try {
+            connection.commit();
+        } catch (SQLException ex) {
+            Logger.getLogger(ItemBatch.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Logger.getLogger(ItemBatch.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+}
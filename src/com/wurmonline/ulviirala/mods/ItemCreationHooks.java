@@ -0,0 +1,91 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.items.Item;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtPrimitiveType;
+import javassist.NotFoundException;
+import javassist.bytecode.Descriptor;
+import javassist.expr.ExprEditor;
+import javassist.expr.NewExpr;
+import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
+
+/**
+ * Handlers that run after an item of a given template was created.
+ *
+ * ItemFactory.createItem creates every item on the server, so the hook in
+ * it only loads the template's slot from an array indexed by template ID,
+ * and items without a handler cost a bounds and a null check. Handlers are
+ * registered during preInit, the array is replaced as a whole, so the hook
+ * never needs a lock.
+ */
+public final class ItemCreationHooks {
+    @SuppressWarnings("unchecked")
+    private static volatile Consumer<Item>[] _Handlers = new Consumer[0];
+    private static boolean _Installed = false;
+
+    private ItemCreationHooks() {
+    }
+
+    /**
+     * Runs the handler for every new item of the template, after the ones
+     * registered before it.
+     */
+    public static synchronized void Register(int templateId, Consumer<Item> handler) {
+        Consumer<Item>[] handlers = Arrays.copyOf(_Handlers, Math.max(_Handlers.length, templateId + 1));
+        handlers[templateId] = handlers[templateId] == null ? handler : handlers[templateId].andThen(handler);
+        _Handlers = handlers;
+    }
+
+    /**
+     * Called by ItemFactory.createItem for every new item.
+     */
+    public static void Created(int templateId, Item item) {
+        Consumer<Item>[] handlers = _Handlers;
+
+        if (templateId >= 0 && templateId < handlers.length) {
+            Consumer<Item> handler = handlers[templateId];
+
+            if (handler != null)
+                handler.accept(item);
+        }
+    }
+
+    /**
+     * Code inserted after the item is constructed in createItem.
+     */
+    static String CreationHook() {
+        return "{ com.wurmonline.ulviirala.mods.ItemCreationHooks.Created(templateId, toReturn); }";
+    }
+
+    /**
+     * Hooks ItemFactory.createItem, once, however many mods register.
+     */
+    public static synchronized void Install() throws NotFoundException, CannotCompileException {
+        if (_Installed)
+            return;
+
+        CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.ItemFactory");
+        CtClass[] parameters = new CtClass[] {
+            CtPrimitiveType.intType,
+            CtPrimitiveType.floatType,
+            CtPrimitiveType.byteType,
+            CtPrimitiveType.byteType,
+            CtPrimitiveType.longType,
+            HookManager.getInstance().getClassPool().get("java.lang.String")
+        };
+        CtMethod ctMethod = ctClass.getMethod("createItem", Descriptor.ofMethod(HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item"), parameters));
+        ctMethod.instrument(new ExprEditor() {
+            @Override
+            public void edit(NewExpr newExpr) throws CannotCompileException {
+                if (newExpr.getClassName().equals("com.wurmonline.server.items.DbItem"))
+                    ctMethod.insertAt(newExpr.getLineNumber() + 1, CreationHook());
+            }
+        });
+
+        _Installed = true;
+    }
+}
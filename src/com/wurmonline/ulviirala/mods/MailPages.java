@@ -0,0 +1,171 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.WurmMail;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Shows a mailbox a page at a time in MailReceiveQuestion, ordered by the
+ * mailed item's wurm ID.
+ *
+ * The mails of each receiver are kept in an index sorted by item ID, which
+ * WurmMail's adds, removals and receiver changes keep up to date. Each player
+ * has a cursor per mailbox they open, the last item ID they were shown there.
+ * Opening the mailbox shows the page after it, and answering the question
+ * moves the cursor, so opening it again continues. After the last page it
+ * starts over and the cursor is dropped, a player's cursors are also
+ * dropped when they log out. A page is read from the index starting at the cursor, so it
+ * costs the page's worth of mails plus the ones still on their way, however
+ * many the receiver has.
+ */
+public final class MailPages {
+    private static final HashMap<Long, TreeMap<Long, WurmMail>> _Mails = new HashMap<>();
+    private static final HashMap<Long, Long> _Receivers = new HashMap<>();
+
+    // Item ID of the last mail shown and how many were shown up to it, by player and mailbox.
+    private static final HashMap<Long, HashMap<Long, long[]>> _Cursors = new HashMap<>();
+    private static final HashMap<Long, HashMap<Long, long[]>> _Shown = new HashMap<>();
+    private static int _PageSize = 50;
+
+    private MailPages() {
+    }
+
+    public static void SetPageSize(int pageSize) {
+        _PageSize = pageSize;
+    }
+
+    /**
+     * Called after WurmMail.addWurmMail, also for the mails loaded at startup.
+     */
+    public static synchronized void Added(WurmMail mail) {
+        Removed(mail.getItemId());
+        _Mails.computeIfAbsent(mail.getReceiver(), receiver -> new TreeMap<>()).put(mail.getItemId(), mail);
+        _Receivers.put(mail.getItemId(), mail.getReceiver());
+    }
+
+    /**
+     * Called before WurmMail removes the mail of the item.
+     */
+    public static synchronized void Removed(long itemId) {
+        Long receiver = _Receivers.remove(itemId);
+
+        if (receiver == null)
+            return;
+
+        TreeMap<Long, WurmMail> mails = _Mails.get(receiver);
+        mails.remove(itemId);
+
+        if (mails.isEmpty())
+            _Mails.remove(receiver);
+    }
+
+    /**
+     * Called after a mail's receiver was written, e.g. when it was rejected
+     * and goes back to its sender.
+     */
+    public static synchronized void Moved(WurmMail mail) {
+        Long receiver = _Receivers.get(mail.getItemId());
+
+        if (receiver != null && receiver != mail.getReceiver())
+            Added(mail);
+    }
+
+    /**
+     * Replaces the mails MailReceiveQuestion lists with the responder's
+     * next page of the ones that arrived.
+     */
+    public static synchronized Set<WurmMail> Page(Creature responder, long mailbox) {
+        TreeMap<Long, WurmMail> mails = _Mails.get(responder.getWurmId());
+
+        if (mails == null)
+            return new LinkedHashSet<>();
+
+        long now = System.currentTimeMillis();
+        long[] cursor = Get(_Cursors, responder.getWurmId(), mailbox);
+        ArrayList<WurmMail> page = Next(mails, cursor == null ? Long.MIN_VALUE : cursor[0], now);
+
+        // Past the last page, start over.
+        if (page.isEmpty() && cursor != null) {
+            Remove(_Cursors, responder.getWurmId(), mailbox);
+            cursor = null;
+            page = Next(mails, Long.MIN_VALUE, now);
+        }
+
+        if (page.isEmpty())
+            return new LinkedHashSet<>();
+
+        // Mails shown before may have been taken out since.
+        long before = cursor == null ? 0 : Math.max(0, Math.min(cursor[1], mails.size() - page.size()));
+        _Shown.computeIfAbsent(responder.getWurmId(), player -> new HashMap<>())
+                .put(mailbox, new long[] { page.get(page.size() - 1).getItemId(), before + page.size() });
+
+        if (mails.size() > _PageSize)
+            responder.getCommunicator().sendNormalServerMessage(String.format(
+                    "Showing mail %d to %d of %d sent to you, answer and open the mailbox again for the next ones.",
+                    before + 1, before + page.size(), mails.size()));
+
+        return new LinkedHashSet<>(page);
+    }
+
+    /**
+     * Called after MailReceiveQuestion.answer, the next opening of the same
+     * mailbox continues after the page that was shown.
+     */
+    public static synchronized void Answered(Creature responder, long mailbox) {
+        long[] shown = Remove(_Shown, responder.getWurmId(), mailbox);
+
+        if (shown != null)
+            _Cursors.computeIfAbsent(responder.getWurmId(), player -> new HashMap<>()).put(mailbox, shown);
+    }
+
+    /**
+     * Called when a player logs out, forgets where they were in their
+     * mailboxes, also pages shown in questions they never answered.
+     */
+    public static synchronized void LoggedOut(long player) {
+        _Cursors.remove(player);
+        _Shown.remove(player);
+    }
+
+    private static long[] Get(HashMap<Long, HashMap<Long, long[]>> viewers, long player, long mailbox) {
+        HashMap<Long, long[]> mailboxes = viewers.get(player);
+        return mailboxes == null ? null : mailboxes.get(mailbox);
+    }
+
+    private static long[] Remove(HashMap<Long, HashMap<Long, long[]>> viewers, long player, long mailbox) {
+        HashMap<Long, long[]> mailboxes = viewers.get(player);
+
+        if (mailboxes == null)
+            return null;
+
+        long[] removed = mailboxes.remove(mailbox);
+
+        if (mailboxes.isEmpty())
+            viewers.remove(player);
+
+        return removed;
+    }
+
+    /**
+     * The page of arrived mails after the cursor, in order.
+     */
+    private static ArrayList<WurmMail> Next(TreeMap<Long, WurmMail> mails, long cursor, long now) {
+        ArrayList<WurmMail> page = new ArrayList<>(_PageSize);
+        Iterator<WurmMail> iterator = mails.tailMap(cursor, false).values().iterator();
+
+        while (page.size() < _PageSize && iterator.hasNext()) {
+            WurmMail mail = iterator.next();
+
+            if (mail.getSent() <= now)
+                page.add(mail);
+        }
+
+        return page;
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.wurmonline.ulviirala.mods;
 
+import java.util.HashSet;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javassist.CannotCompileException;
@@ -11,18 +13,35 @@ import javassist.bytecode.Descriptor;
 import javassist.expr.ExprEditor;
 import javassist.expr.MethodCall;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
+import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
+import org.gotti.wurmunlimited.modloader.interfaces.ServerPollListener;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
 /**
  * Removes restrictions imposed by holy altars (e.g. white light, black
  * light) to terraform, build structures, and found settlements, as well
  * as founding settlements near aggressive creatures and dens.
+ * 
+ * Optionally the altars keep a smaller area of holy ground, see AltarTiles.
  */
-public class NoHolyGround implements WurmServerMod, PreInitable {
+public class NoHolyGround implements WurmServerMod, PreInitable, Configurable, ServerPollListener {
+    private int _AltarRadius = 0; // Tiles around the altars that stay holy, 0 is none.
+    private int _FoundingRadius = 0; // Tiles around a deed token that must be clear, 0 is no check.
+    private HashSet<Integer> _DenTemplates = new HashSet<Integer>();
+    
     @Override
     public void preInit() {
         RemoveBlockingRestrictions();
+        
+        if (_AltarRadius > 0)
+            AddAltarRadius();
+        
+        if (_FoundingRadius > 0)
+            TrackCreatures();
+        
+        if (_FoundingRadius > 0 && !_DenTemplates.isEmpty())
+            TrackDens();
     }    
     
 
@@ -48,8 +67,17 @@ public class NoHolyGround implements WurmServerMod, PreInitable {
                      * 
                      * effectively always allowing founding a settlement regardless
                      * of altars and aggressive creatures or dens.
+                     * 
+                     * With a founding radius, they only look that far, in
+                     * FoundingGrid.
                      */
-                    if (methodName.equals("checkBlockingCreatures"))
+                    if (_FoundingRadius > 0 && methodName.equals("checkBlockingCreatures"))
+                        methodCall.replace("{ $_ = !com.wurmonline.ulviirala.mods.FoundingGrid.CreatureNear(this.tokenx, this.tokeny, " + _FoundingRadius + ");"
+                                + " if (!$_) this.getResponder().getCommunicator().sendNormalServerMessage(\"There are aggressive creatures too close to found a settlement here.\"); }");
+                    else if (_FoundingRadius > 0 && methodName.equals("checkBlockingItems"))
+                        methodCall.replace("{ $_ = !com.wurmonline.ulviirala.mods.FoundingGrid.ItemNear(this.tokenx, this.tokeny, " + _FoundingRadius + ");"
+                                + " if (!$_) this.getResponder().getCommunicator().sendNormalServerMessage(\"There is an altar or a den too close to found a settlement here.\"); }");
+                    else if (methodName.equals("checkBlockingCreatures"))
                         methodCall.replace("$_ = true;");
                     else if (methodName.equals("checkBlockingItems"))
                         methodCall.replace("$_ = true;");
@@ -111,4 +139,98 @@ public class NoHolyGround implements WurmServerMod, PreInitable {
             Logger.getLogger(NoHolyGround.class.getName()).log(Level.SEVERE, null, ex);
         }        
     }
+    
+    /**
+     * Blocks terraforming and planning structures within the radius of the
+     * altars, with a bit test per check.
+     */
+    private void AddAltarRadius() {
+        try {
+            AltarTiles.SetRadius(_AltarRadius);
+            String message = "$1.getCommunicator().sendNormalServerMessage(\"The holy ground around the altar prevents that.\");";
+            
+            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.behaviours.Terraforming");
+            CtClass[] parameters = new CtClass[] {
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.creatures.Creature"),
+                CtPrimitiveType.intType,
+                CtPrimitiveType.intType };
+            ctClass.getMethod("isAltarBlocking", Descriptor.ofMethod(CtPrimitiveType.booleanType, parameters))
+                    .insertBefore("{ if (com.wurmonline.ulviirala.mods.AltarTiles.IsBlocked($2, $3)) { " + message + " return true; } }");
+            
+            ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.behaviours.MethodsStructure");
+            parameters = new CtClass[] {
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.creatures.Creature"),
+                HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item"),
+                CtPrimitiveType.intType,
+                CtPrimitiveType.intType,
+                CtPrimitiveType.intType };
+            ctClass.getMethod("canPlanStructureAt", Descriptor.ofMethod(CtPrimitiveType.booleanType, parameters))
+                    .insertBefore("{ if (com.wurmonline.ulviirala.mods.AltarTiles.IsBlocked($3, $4)) { " + message + " return false; } }");
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoHolyGround.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Moves aggressive creatures between FoundingGrid's cells as they change
+     * tiles, players and other creatures don't call in.
+     */
+    private void TrackCreatures() {
+        try {
+            HookManager.getInstance().getClassPool().get("com.wurmonline.server.creatures.Creature")
+                    .getMethod("setCurrentTile", "(Lcom/wurmonline/server/zones/VolaTile;)V")
+                    .insertBefore("{ if (!this.isPlayer() && this.isAggHuman()) com.wurmonline.ulviirala.mods.FoundingGrid.CreatureMoved(this, $1); }");
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoHolyGround.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Keeps FoundingGrid's dens up to date as they're created and destroyed.
+     */
+    private void TrackDens() {
+        try {
+            for (int templateId : _DenTemplates)
+                ItemCreationHooks.Register(templateId, FoundingGrid::DenCreated);
+            
+            ItemCreationHooks.Install();
+            
+            HookManager.getInstance().getClassPool().get("com.wurmonline.server.Items").getMethod("destroyItem", "(J)V")
+                    .insertBefore("{ com.wurmonline.ulviirala.mods.FoundingGrid.Destroyed($1); }");
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoHolyGround.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    @Override
+    public void onServerPoll() {
+        if (_AltarRadius > 0)
+            AltarTiles.Poll();
+        
+        if (_FoundingRadius > 0)
+            FoundingGrid.Poll();
+    }
+    
+    @Override
+    public void configure(Properties properties) {
+        _AltarRadius = Math.max(0, Math.min(100, Integer.valueOf(properties.getProperty("altarRadius", String.valueOf(_AltarRadius)))));
+        Logger.getLogger(NoHolyGround.class.getName()).log(Level.INFO, String.format("Altars keep %d tiles of holy ground.", _AltarRadius));
+        
+        _FoundingRadius = Math.max(0, Math.min(100, Integer.valueOf(properties.getProperty("foundingRadius", String.valueOf(_FoundingRadius)))));
+        
+        for (String templateId : properties.getProperty("denTemplates", "").split(",")) {
+            if (templateId.trim().isEmpty())
+                continue;
+            
+            try {
+                _DenTemplates.add(Integer.valueOf(templateId.trim()));
+            } catch (NumberFormatException ex) {
+                Logger.getLogger(NoHolyGround.class.getName()).log(Level.WARNING, "Den template ID {0} is not a number, skipping it.", templateId);
+            }
+        }
+        
+        FoundingGrid.SetDenTemplates(_DenTemplates);
+        Logger.getLogger(NoHolyGround.class.getName()).log(Level.INFO, String.format("Settlements can%s be founded near aggressive creatures and dens%s.",
+                _FoundingRadius > 0 ? " not" : "", _FoundingRadius > 0 ? String.format(" within %d tiles", _FoundingRadius) : ""));
+    }
 }
@@ -1,5 +1,9 @@
 package com.wurmonline.ulviirala.mods;
 
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemSpellEffects;
+import com.wurmonline.server.players.Player;
+import com.wurmonline.server.spells.SpellEffect;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -10,20 +14,24 @@ import javassist.CtPrimitiveType;
 import javassist.NotFoundException;
 import javassist.bytecode.Descriptor;
 import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
 import javassist.expr.MethodCall;
-import javassist.expr.NewExpr;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
 import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
+import org.gotti.wurmunlimited.modloader.interfaces.PlayerLoginListener;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 /**
  *
  * Disables postage cost and places Courier enchants on newly created mailboxes.
  */
-public class NoMailCost implements WurmServerMod, PreInitable, Configurable {
+public class NoMailCost implements WurmServerMod, PreInitable, Configurable, PlayerLoginListener {
     private boolean _DisablePostage = true;
     private boolean _EnableEnchant = true;
     private float _EnchantPower = 30f;
+    private boolean _RetrofitEnchant = true;
+    private boolean _BatchMailSends = true;
+    private int _MailPageSize = 50;
     
     @Override
     public void preInit() {
@@ -32,6 +40,15 @@ public class NoMailCost implements WurmServerMod, PreInitable, Configurable {
         
         if (_EnableEnchant)
             EnableEnchant();
+        
+        if (_EnableEnchant && _RetrofitEnchant)
+            RetrofitEnchant();
+        
+        if (_BatchMailSends)
+            BatchMailSends();
+        
+        if (_MailPageSize > 0)
+            PageMailboxes();
     }
 
     /**
@@ -40,35 +57,115 @@ public class NoMailCost implements WurmServerMod, PreInitable, Configurable {
     private void EnableEnchant() {
         try {
             // Places a 30 power courier enchantment on newly created mailboxes.
-            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.ItemFactory");
-            CtClass[] parameters = new CtClass[] {
-                CtPrimitiveType.intType,
-                CtPrimitiveType.floatType,
-                CtPrimitiveType.byteType,
-                CtPrimitiveType.byteType,
-                CtPrimitiveType.longType,
-                HookManager.getInstance().getClassPool().get("java.lang.String")
+            float enchantPower = _EnchantPower;
+            for (int templateId = 510; templateId <= 513; templateId++)
+                ItemCreationHooks.Register(templateId, mailbox -> AddCourier(mailbox, enchantPower));
+            
+            ItemCreationHooks.Install();
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoMailCost.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Enchants the mailboxes that already exist, right before the server
+     * loads its items.
+     */
+    private void RetrofitEnchant() {
+        try {
+            CtMethod ctMethod = HookManager.getInstance().getClassPool().get("com.wurmonline.server.Server").getDeclaredMethod("startRunning");
+            ctMethod.instrument(new ExprEditor() {
+                @Override
+                public void edit(MethodCall methodCall) throws CannotCompileException {
+                    if (methodCall.getClassName().equals("com.wurmonline.server.Items") && methodCall.getMethodName().equals("loadAllItems"))
+                        methodCall.replace("{ com.wurmonline.ulviirala.mods.CourierRetrofit.Run(" + _EnchantPower + "f); $_ = $proceed($$); }");
+                }
+            });
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoMailCost.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Commits the item database writes of a mail send at once, see ItemBatch.
+     */
+    private void BatchMailSends() {
+        try {
+            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.questions.MailSendConfirmQuestion");
+            CtClass[] parameters = new CtClass[] { HookManager.getInstance().getClassPool().get("java.util.Properties") };
+            CtMethod ctMethod = ctClass.getMethod("answer", Descriptor.ofMethod(CtPrimitiveType.voidType, parameters));
+            ctMethod.insertBefore("{ com.wurmonline.ulviirala.mods.ItemBatch.Begin(); }");
+            ctMethod.insertAfter("{ com.wurmonline.ulviirala.mods.ItemBatch.End(); }", true);
+        } catch (NotFoundException | CannotCompileException ex) {
+            Logger.getLogger(NoMailCost.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Lists mailboxes a page at a time, see MailPages.
+     */
+    private void PageMailboxes() {
+        try {
+            MailPages.SetPageSize(_MailPageSize);
+            
+            // Keeps the index of each receiver's mails up to date.
+            CtClass wurmMail = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.WurmMail");
+            for (CtMethod addWurmMail : wurmMail.getDeclaredMethods("addWurmMail"))
+                addWurmMail.insertAfter("{ com.wurmonline.ulviirala.mods.MailPages.Added($1); }");
+            
+            for (CtMethod method : wurmMail.getDeclaredMethods())
+                if (method.getName().startsWith("remove") && method.getSignature().startsWith("(J)"))
+                    method.insertBefore("{ com.wurmonline.ulviirala.mods.MailPages.Removed($1); }");
+            
+            CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.server.questions.MailReceiveQuestion");
+            ExprEditor receiverWrites = new ExprEditor() {
+                @Override
+                public void edit(FieldAccess fieldAccess) throws CannotCompileException {
+                    if (fieldAccess.isWriter() && fieldAccess.getClassName().equals("com.wurmonline.server.items.WurmMail") && fieldAccess.getFieldName().equals("receiver"))
+                        fieldAccess.replace("{ $proceed($$); com.wurmonline.ulviirala.mods.MailPages.Moved($0); }");
+                }
             };
-            CtMethod ctMethod = ctClass.getMethod("createItem", Descriptor.ofMethod(HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item"), parameters));
-            ctMethod.instrument(new ExprEditor() { 
+            wurmMail.instrument(receiverWrites);
+            ctClass.instrument(receiverWrites);
+            
+            ctClass.getDeclaredMethod("sendQuestion").instrument(new ExprEditor() {
                 @Override
-                public void edit(NewExpr newExpr) throws CannotCompileException {
-                    if (newExpr.getClassName().equals("com.wurmonline.server.items.DbItem")) {
-                        ctMethod.insertAt(newExpr.getLineNumber() + 1, 
-                                "{ if (templateId >= 510 && templateId <= 513) {" +
-                                        "com.wurmonline.server.items.ItemSpellEffects effs;" +
-                                        "if ((effs = toReturn.getSpellEffects()) == null) effs = new com.wurmonline.server.items.ItemSpellEffects(toReturn.getWurmId());" +
-                                        "toReturn.getSpellEffects().addSpellEffect(new com.wurmonline.server.spells.SpellEffect(toReturn.getWurmId(), (byte)20, " + _EnchantPower + "f, 20000000));" +
-                                        "toReturn.permissions.setPermissionBit(com.wurmonline.server.players.Permissions.Allow.HAS_COURIER.getBit(), true);"+
-                                        "} }");
-                    }
+                public void edit(MethodCall methodCall) throws CannotCompileException {
+                    // The call that gets the mails to list, the page comes from the index instead.
+                    if (methodCall.getClassName().equals("com.wurmonline.server.items.WurmMail") && methodCall.getSignature().endsWith(")Ljava/util/Set;"))
+                        methodCall.replace("{ $_ = com.wurmonline.ulviirala.mods.MailPages.Page(this.getResponder(), this.target); }");
                 }
             });
+            
+            CtClass[] parameters = new CtClass[] { HookManager.getInstance().getClassPool().get("java.util.Properties") };
+            ctClass.getMethod("answer", Descriptor.ofMethod(CtPrimitiveType.voidType, parameters))
+                    .insertAfter("{ com.wurmonline.ulviirala.mods.MailPages.Answered(this.getResponder(), this.target); }");
         } catch (NotFoundException | CannotCompileException ex) {
             Logger.getLogger(NoMailCost.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
+    @Override
+    public void onPlayerLogin(Player player) {
+    }
+    
+    @Override
+    public void onPlayerLogout(Player player) {
+        if (_MailPageSize > 0)
+            MailPages.LoggedOut(player.getWurmId());
+    }
+    
+    /**
+     * Places a Courier enchant of the given power on the mailbox.
+     */
+    static void AddCourier(Item mailbox, float enchantPower) {
+        ItemSpellEffects effs;
+        if ((effs = mailbox.getSpellEffects()) == null)
+            effs = new ItemSpellEffects(mailbox.getWurmId());
+        effs.addSpellEffect(new SpellEffect(mailbox.getWurmId(), (byte)20, enchantPower, 20000000));
+        mailbox.setHasCourier(true);
+    }
+    
     /**
      * Disables postage cost for sending mail and receiving returned mails.
      */
@@ -133,6 +230,10 @@ public class NoMailCost implements WurmServerMod, PreInitable, Configurable {
         if (_EnchantPower < 1.0f || _EnchantPower > 101.0f)
             _EnchantPower = 30.0f;
         
+        _RetrofitEnchant = Boolean.valueOf(properties.getProperty("retrofitEnchant", String.valueOf(_RetrofitEnchant)));
+        _BatchMailSends = Boolean.valueOf(properties.getProperty("batchMailSends", String.valueOf(_BatchMailSends)));
+        _MailPageSize = Math.max(0, Integer.valueOf(properties.getProperty("mailPageSize", String.valueOf(_MailPageSize))));
+        
         Logger.getLogger(NoMailCost.class.getName()).log(Level.INFO, String.format("Newly created mailboxes will%s get %f power Courier enchants.", (!_EnableEnchant ? " not": ""), _EnchantPower));
     }
 }
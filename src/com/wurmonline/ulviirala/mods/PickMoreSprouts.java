@@ -20,6 +20,7 @@ import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
  */
 public class PickMoreSprouts implements WurmServerMod, PreInitable, Configurable {
     private int _Count = 5;
+    private boolean _Bundle = false; // The extra sprouts are one item that weighs as much as all of them.
     
     @Override
     public void preInit() {
@@ -30,24 +31,57 @@ public class PickMoreSprouts implements WurmServerMod, PreInitable, Configurable
                 @Override
                 public void edit(MethodCall methodCall) throws CannotCompileException {
                     if (methodCall.getMethodName().equals("insertItem")) {
+                        // The extra sprouts are written in one transaction, see SproutBatch.
                         ctMethod.insertAt(methodCall.getLineNumber() + 1, 
-                                "{ for (int iSprout = 0; iSprout <" + (_Count - 1) + "; iSprout++) {"+
-                                        "sprout = com.wurmonline.server.items.ItemFactory.createItem(266, Math.max(1.0f, (float)power * modifier + (float)sickle.getRarity()), material, act.getRarity(), null);" +
-                                        "if (power < 0.0) { sprout.setDamage((float)(-power)/2.0f); }"+
-                                        "performer.getInventory().insertItem(sprout); }"+
-                                " }"
+                                "{ com.wurmonline.ulviirala.mods.SproutBatch." + (_Bundle ? "Bundle" : "Pick") + "(performer, " + (_Count - 1) + ", " +
+                                        "Math.max(1.0f, (float)power * modifier + (float)sickle.getRarity()), material, act.getRarity(), " +
+                                        "power < 0.0 ? (float)(-power)/2.0f : 0.0f); }"
                         );
                     }
                 }
             });
+            
+            if (_Bundle)
+                AddBundleSplits();
         } catch (NotFoundException | CannotCompileException ex) {
             Logger.getLogger(PickMoreSprouts.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    /**
+     * Planting from a bundle takes one sprout off it, see SproutBatch.TakeOne,
+     * and offering it in a trade splits one real sprout off it, see
+     * SproutBatch.SplitOne.
+     */
+    private void AddBundleSplits() throws NotFoundException, CannotCompileException {
+        CtClass terraforming = HookManager.getInstance().getClassPool().get("com.wurmonline.server.behaviours.Terraforming");
+
+        // The planted sprout is destroyed once the action is done, a bundle only gets lighter.
+        for (CtMethod plantSprout : terraforming.getDeclaredMethods("plantSprout")) {
+            plantSprout.instrument(new ExprEditor() {
+                @Override
+                public void edit(MethodCall methodCall) throws CannotCompileException {
+                    if (methodCall.getClassName().equals("com.wurmonline.server.Items") && methodCall.getMethodName().equals("destroyItem")
+                            && methodCall.getSignature().equals("(J)V"))
+                        methodCall.replace("{ if (!com.wurmonline.ulviirala.mods.SproutBatch.TakeOne($1)) $proceed($$); }");
+                }
+            });
+        }
+
+        // public void addItem(Item item) {
+        HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.TradingWindow")
+                .getMethod("addItem", "(Lcom/wurmonline/server/items/Item;)V")
+                .insertBefore("{ $1 = com.wurmonline.ulviirala.mods.SproutBatch.SplitOne($1); }");
+    }
+
     @Override
     public void configure(Properties properties) {
         _Count = Math.max(1, Math.min(64, Integer.valueOf(properties.getProperty("count", String.valueOf(_Count)))));
         Logger.getLogger(PickMoreSprouts.class.getName()).log(Level.INFO, String.format("You will pick %d sprouts each now.", _Count));
+        
+        _Bundle = Boolean.valueOf(properties.getProperty("bundleSprouts", String.valueOf(_Bundle)));
+        
+        if (_Bundle)
+            Logger.getLogger(PickMoreSprouts.class.getName()).log(Level.INFO, "The extra sprouts of a pick are bundled into one item.");
     }
 }
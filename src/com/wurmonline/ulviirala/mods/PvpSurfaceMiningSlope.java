@@ -1,5 +1,6 @@
 package com.wurmonline.ulviirala.mods;
 
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javassist.CannotCompileException;
@@ -10,16 +11,25 @@ import javassist.NotFoundException;
 import javassist.bytecode.Descriptor;
 import javassist.expr.ExprEditor;
 import javassist.expr.FieldAccess;
+import javassist.expr.MethodCall;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
+import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
+import org.gotti.wurmunlimited.modloader.interfaces.ServerStartedListener;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
 /**
  * Uses PvE surface mining slope limits on PvP servers, by changing the code
  * in the relevant conditional statement, so that the server is handled like
  * a non-PvP server.
+ *
+ * Optionally the slope of a tile is looked up in SlopeCache, instead of
+ * decoding the neighbour heights on every mining action, and the allowed
+ * slope can differ by area of the map, see SlopeRegions.
  */
-public class PvpSurfaceMiningSlope implements WurmServerMod, PreInitable {
+public class PvpSurfaceMiningSlope implements WurmServerMod, PreInitable, Configurable, ServerStartedListener {
+    private boolean _SlopeCache = true;
+
     @Override
     public void preInit() {
         try {
@@ -44,10 +54,80 @@ public class PvpSurfaceMiningSlope implements WurmServerMod, PreInitable {
                         Logger.getLogger(PvpSurfaceMiningSlope.class.getName()).log(Level.INFO, "Patched PvP server statement for surface mining.");
                     }
                 }
+
+                @Override
+                public void edit(MethodCall methodCall) throws CannotCompileException {
+                    /**
+                     * Replaces the original code,
+                     *
+                     * int diff = Terraforming.getMaxSurfaceDifference(Server.surfaceMesh.getTile(digTilex, digTiley), digTilex, digTiley);
+                     *
+                     * with a read of the cached slope, scaled for the
+                     * multiplier of the tile's region.
+                     */
+                    if (!methodCall.getMethodName().equals("getMaxSurfaceDifference"))
+                        return;
+
+                    String slope = _SlopeCache ? "com.wurmonline.ulviirala.mods.SlopeCache.Get($2, $3)" : "$proceed($$)";
+
+                    if (SlopeRegions.IsUsed())
+                        methodCall.replace("$_ = com.wurmonline.ulviirala.mods.SlopeRegions.Scale($2, $3, " + slope + ");");
+                    else if (_SlopeCache)
+                        methodCall.replace("$_ = " + slope + ";");
+                }
             });
-    
+
+            if (_SlopeCache)
+                AddSlopeInvalidation();
         } catch (NotFoundException | CannotCompileException ex) {
             Logger.getLogger(PvpSurfaceMiningSlope.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+
+    /**
+     * Tells SlopeCache about every tile written to the surface mesh, writes
+     * to the other meshes don't call into it.
+     */
+    private void AddSlopeInvalidation() throws NotFoundException, CannotCompileException {
+        CtClass ctClass = HookManager.getInstance().getClassPool().get("com.wurmonline.mesh.MeshIO");
+
+        // public void setTile(int x, int y, int value) {
+        CtClass[] parameters = new CtClass[] {
+            CtPrimitiveType.intType,
+            CtPrimitiveType.intType,
+            CtPrimitiveType.intType
+        };
+
+        ctClass.getMethod("setTile", Descriptor.ofMethod(CtPrimitiveType.voidType, parameters))
+                .insertAfter("if (this == com.wurmonline.server.Server.surfaceMesh) com.wurmonline.ulviirala.mods.SlopeCache.Changed($1, $2);");
+    }
+
+    @Override
+    public void onServerStarted() {
+        SlopeRegions.Build();
+    }
+
+    @Override
+    public void configure(Properties properties) {
+        _SlopeCache = Boolean.valueOf(properties.getProperty("slopeCache", String.valueOf(_SlopeCache)));
+        Logger.getLogger(PvpSurfaceMiningSlope.class.getName()).log(Level.INFO, String.format("Surface slopes are%s cached.", _SlopeCache ? "" : " not"));
+
+        SlopeRegions.SetDefaultMultiplier(Math.max(0.1f, Math.min(10f, Float.valueOf(properties.getProperty("slopeMultiplier", "3")))));
+
+        // fromX:fromY:toX:toY:multiplier, comma separated.
+        for (String region : properties.getProperty("slopeRegions", "").split(",")) {
+            if (region.trim().isEmpty())
+                continue;
+
+            String[] values = region.trim().split(":");
+
+            try {
+                SlopeRegions.Add(Integer.valueOf(values[0].trim()), Integer.valueOf(values[1].trim()),
+                        Integer.valueOf(values[2].trim()), Integer.valueOf(values[3].trim()),
+                        Math.max(0.1f, Math.min(10f, Float.valueOf(values[4].trim()))));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                Logger.getLogger(PvpSurfaceMiningSlope.class.getName()).log(Level.WARNING, "Slope region {0} is not fromX:fromY:toX:toY:multiplier, skipping it.", region);
+            }
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package com.wurmonline.ulviirala.mods;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Model sizes that replace Item.getSizeMod for whole templates, a float per
+ * template ID, NaN where the template keeps its own size.
+ *
+ * getSizeMod runs for every item sent to a client, so the lookup is one
+ * bounds check and one array load, however many templates are resized.
+ */
+public final class SizeOverrides {
+    private static final int MAX_TEMPLATE = Short.MAX_VALUE;
+
+    // Only written by Load, before the server starts.
+    private static float[] _Sizes = new float[0];
+
+    private SizeOverrides() {
+    }
+
+    /**
+     * The size for items of the template, NaN if it isn't overridden.
+     */
+    public static float Get(int templateId) {
+        float[] sizes = _Sizes;
+        return templateId >= 0 && templateId < sizes.length ? sizes[templateId] : Float.NaN;
+    }
+
+    /**
+     * Reads comma separated templateId:size pairs.
+     */
+    public static void Load(String values) {
+        int[] templates = new int[0];
+        float[] sizes = new float[0];
+        int count = 0;
+        int length = 0;
+
+        for (String value : values.split(",")) {
+            if (value.trim().isEmpty())
+                continue;
+
+            String[] fields = value.trim().split(":");
+
+            try {
+                int templateId = Integer.valueOf(fields[0].trim());
+                float size = Float.valueOf(fields[1].trim());
+
+                if (templateId < 0 || templateId > MAX_TEMPLATE || !(size > 0.0f) || Float.isInfinite(size))
+                    throw new NumberFormatException();
+
+                if (count == templates.length) {
+                    templates = Arrays.copyOf(templates, count * 2 + 8);
+                    sizes = Arrays.copyOf(sizes, count * 2 + 8);
+                }
+
+                templates[count] = templateId;
+                sizes[count] = size;
+                count++;
+                length = Math.max(length, templateId + 1);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                Logger.getLogger(SizeOverrides.class.getName()).log(Level.WARNING, "Size {0} is not templateId:size, skipping it.", value);
+            }
+        }
+
+        float[] table = new float[length];
+        Arrays.fill(table, Float.NaN);
+
+        for (int i = 0; i < count; i++)
+            table[templates[i]] = sizes[i];
+
+        _Sizes = table;
+    }
+
+    /**
+     * Number of templates with an overridden size.
+     */
+    public static int Count() {
+        int count = 0;
+
+        for (float size : _Sizes)
+            if (!Float.isNaN(size))
+                count++;
+
+        return count;
+    }
+}
@@ -0,0 +1,84 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.Server;
+import com.wurmonline.server.behaviours.Terraforming;
+import com.wurmonline.server.zones.Zones;
+import java.util.Arrays;
+
+/**
+ * The surface slope of each tile, the largest height difference to its
+ * neighbours as Terraforming.getMaxSurfaceDifference returns it, one short
+ * per tile.
+ *
+ * A tile's slope is computed the first time it's mined and kept until a
+ * height around it changes. Every write to the surface mesh forgets the
+ * slopes of the written tile and its neighbours, which share its corner.
+ * The map is split into chunks of 64 x 64 tiles that are only allocated
+ * once a tile in them is mined, so a big map doesn't cost its full size.
+ */
+public final class SlopeCache {
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final short UNKNOWN = Short.MIN_VALUE;
+
+    private static short[][] _Chunks = null;
+    private static int _ChunksPerRow = 0;
+    private static int _WorldSize = 0;
+
+    private SlopeCache() {
+    }
+
+    /**
+     * The slope of the tile, computed only if it isn't known.
+     */
+    public static synchronized int Get(int tileX, int tileY) {
+        if (_Chunks == null) {
+            _WorldSize = Zones.worldTileSizeX;
+            _ChunksPerRow = (_WorldSize + CHUNK_MASK) >> CHUNK_SHIFT;
+            _Chunks = new short[_ChunksPerRow * _ChunksPerRow][];
+        }
+
+        if (tileX < 0 || tileY < 0 || tileX >= _WorldSize || tileY >= _WorldSize)
+            return Compute(tileX, tileY);
+
+        int chunk = (tileY >> CHUNK_SHIFT) * _ChunksPerRow + (tileX >> CHUNK_SHIFT);
+        int index = ((tileY & CHUNK_MASK) << CHUNK_SHIFT) | (tileX & CHUNK_MASK);
+        short[] slopes = _Chunks[chunk];
+
+        if (slopes == null) {
+            slopes = new short[1 << (CHUNK_SHIFT * 2)];
+            Arrays.fill(slopes, UNKNOWN);
+            _Chunks[chunk] = slopes;
+        }
+
+        if (slopes[index] == UNKNOWN)
+            slopes[index] = (short)Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, Compute(tileX, tileY)));
+
+        return slopes[index];
+    }
+
+    /**
+     * Called after a tile of the surface mesh was written, forgets the
+     * slopes that depend on its height.
+     */
+    public static synchronized void Changed(int tileX, int tileY) {
+        if (_Chunks == null)
+            return;
+
+        for (int y = tileY - 1; y <= tileY + 1; y++) {
+            for (int x = tileX - 1; x <= tileX + 1; x++) {
+                if (x < 0 || y < 0 || x >= _WorldSize || y >= _WorldSize)
+                    continue;
+
+                short[] slopes = _Chunks[(y >> CHUNK_SHIFT) * _ChunksPerRow + (x >> CHUNK_SHIFT)];
+
+                if (slopes != null)
+                    slopes[((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK)] = UNKNOWN;
+            }
+        }
+    }
+
+    private static int Compute(int tileX, int tileY) {
+        return Terraforming.getMaxSurfaceDifference(Server.surfaceMesh.getTile(tileX, tileY), tileX, tileY);
+    }
+}
@@ -0,0 +1,102 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.zones.Zones;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Surface mining slope multipliers by area of the map.
+ *
+ * The configured rectangles are compiled into a byte per tile holding the
+ * index of the rectangle that covers it, later rectangles win where they
+ * overlap, 0 is the rest of the map. Looking up the multiplier for a tile
+ * is two array reads, however many rectangles there are.
+ *
+ * Vanilla allows a slope of 3 times the mining skill on PvE servers, which
+ * the mod forces, so a slope is scaled by 3 over the multiplier of its
+ * tile before the server compares it.
+ */
+public final class SlopeRegions {
+    private static final int MAX_REGIONS = 255;
+    private static final float VANILLA_MULTIPLIER = 3f;
+
+    private static float _DefaultMultiplier = VANILLA_MULTIPLIER;
+    private static final ArrayList<int[]> _Rectangles = new ArrayList<>();
+    private static final ArrayList<Float> _RectangleMultipliers = new ArrayList<>();
+
+    private static volatile byte[] _Regions = null;
+    private static volatile float[] _Multipliers = { VANILLA_MULTIPLIER };
+    private static int _WorldSize = 0;
+
+    private SlopeRegions() {
+    }
+
+    public static void SetDefaultMultiplier(float multiplier) {
+        _DefaultMultiplier = multiplier;
+        _Multipliers = new float[] { multiplier };
+    }
+
+    /**
+     * Adds a rectangle of tiles, both corners included.
+     */
+    public static void Add(int fromX, int fromY, int toX, int toY, float multiplier) {
+        if (_Rectangles.size() == MAX_REGIONS) {
+            Logger.getLogger(SlopeRegions.class.getName()).log(Level.WARNING, "Only {0} slope regions are supported, skipping the rest.", MAX_REGIONS);
+            return;
+        }
+
+        _Rectangles.add(new int[] { Math.min(fromX, toX), Math.min(fromY, toY), Math.max(fromX, toX), Math.max(fromY, toY) });
+        _RectangleMultipliers.add(multiplier);
+    }
+
+    /**
+     * Whether any tile uses another multiplier than vanilla's.
+     */
+    public static boolean IsUsed() {
+        return _DefaultMultiplier != VANILLA_MULTIPLIER || !_Rectangles.isEmpty();
+    }
+
+    /**
+     * Fills the region of every tile, once the map size is known.
+     */
+    public static synchronized void Build() {
+        if (_Rectangles.isEmpty() || _Regions != null)
+            return;
+
+        _WorldSize = Zones.worldTileSizeX;
+        byte[] regions = new byte[_WorldSize * _WorldSize];
+        float[] multipliers = new float[1 + _Rectangles.size()];
+        multipliers[0] = _DefaultMultiplier;
+
+        for (int i = 0; i < _Rectangles.size(); i++) {
+            int[] rectangle = _Rectangles.get(i);
+            multipliers[1 + i] = _RectangleMultipliers.get(i);
+
+            for (int y = Math.max(0, rectangle[1]); y <= Math.min(_WorldSize - 1, rectangle[3]); y++)
+                for (int x = Math.max(0, rectangle[0]); x <= Math.min(_WorldSize - 1, rectangle[2]); x++)
+                    regions[y * _WorldSize + x] = (byte)(1 + i);
+        }
+
+        _Multipliers = multipliers;
+        _Regions = regions;
+    }
+
+    public static float Multiplier(int tileX, int tileY) {
+        byte[] regions = _Regions;
+        float[] multipliers = _Multipliers;
+
+        if (regions == null || tileX < 0 || tileY < 0 || tileX >= _WorldSize || tileY >= _WorldSize)
+            return multipliers[0];
+
+        return multipliers[regions[tileY * _WorldSize + tileX] & 0xFF];
+    }
+
+    /**
+     * The slope the server should compare against 3 times the mining skill,
+     * for the multiplier of the tile to apply instead.
+     */
+    public static int Scale(int tileX, int tileY, int slope) {
+        return Math.round(slope * VANILLA_MULTIPLIER / Multiplier(tileX, tileY));
+    }
+}
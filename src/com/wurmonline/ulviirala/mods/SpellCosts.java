@@ -0,0 +1,178 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.deities.Deity;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The favor cost of each spell, by the deity of the caster.
+ *
+ * Costs are kept in a table with a row per deity and an int per spell
+ * number, row 0 holds the costs for all deities. A row has the costs for all
+ * deities merged in, so a cast looks up one int. Spells without a configured
+ * cost cost their vanilla cost divided by the factor, at least 1.
+ *
+ * Reloading builds a new table and swaps it in whole, a cast reads whichever
+ * table is current without locking.
+ */
+public final class SpellCosts {
+    private static final String PROPERTIES = "mods/SpellFavorCost.properties";
+    private static final int NONE = -1;
+    private static final int MAX_DEITY = 255;
+    private static final int MAX_SPELL = Short.MAX_VALUE; // Spells are numbered like actions.
+
+    private static volatile Table _Table = new Table(10, new int[][] { new int[0] });
+    private static final ThreadLocal<Deity> _Caster = new ThreadLocal<>();
+
+    private SpellCosts() {
+    }
+
+    private static final class Table {
+        final int _Factor;
+        final int[][] _Costs;
+
+        Table(int factor, int[][] costs) {
+            _Factor = factor;
+            _Costs = costs;
+        }
+    }
+
+    /**
+     * Called before and after a spell is cast, with the caster's deity and
+     * null.
+     */
+    public static void Casting(Deity deity) {
+        _Caster.set(deity);
+    }
+
+    /**
+     * What a spell costs instead of its vanilla cost.
+     */
+    public static int Cost(int number, int cost) {
+        Table table = _Table;
+        Deity deity = _Caster.get();
+        int[] row = table._Costs[0];
+
+        if (deity != null && deity.getNumber() > 0 && deity.getNumber() < table._Costs.length && table._Costs[deity.getNumber()] != null)
+            row = table._Costs[deity.getNumber()];
+
+        if (number >= 0 && number < row.length && row[number] != NONE)
+            return row[number];
+
+        return Math.max(1, cost / table._Factor);
+    }
+
+    /**
+     * Reads the costs from the mod's properties file again.
+     */
+    public static String Reload() {
+        Properties properties = new Properties();
+
+        try (InputStream input = new FileInputStream(PROPERTIES)) {
+            properties.load(input);
+        } catch (IOException ex) {
+            Logger.getLogger(SpellCosts.class.getName()).log(Level.SEVERE, null, ex);
+            return String.format("Could not read %s, the spell costs are unchanged.", PROPERTIES);
+        }
+
+        return Load(properties);
+    }
+
+    /**
+     * Builds the table from the properties and puts it in use. If the factor
+     * isn't a number the current table stays, entries that can't be read are
+     * skipped, what happened is in the returned message.
+     */
+    public static String Load(Properties properties) {
+        int factor;
+
+        try {
+            factor = Math.max(1, Integer.valueOf(properties.getProperty("Factor", "10").trim()));
+        } catch (NumberFormatException ex) {
+            Logger.getLogger(SpellCosts.class.getName()).log(Level.WARNING, "Factor {0} is not a number.", properties.getProperty("Factor"));
+            return String.format("Factor %s is not a number, the spell costs are unchanged.", properties.getProperty("Factor"));
+        }
+
+        HashMap<Integer, HashMap<Integer, Integer>> deities = new HashMap<>();
+        int rows = 1;
+        int columns = 0;
+        int skipped = 0;
+
+        // spellCosts=spell:cost,... for all deities, spellCosts.<deity>=... for one.
+        for (String key : properties.stringPropertyNames()) {
+            int deity;
+
+            if (key.equals("spellCosts"))
+                deity = 0;
+            else if (key.startsWith("spellCosts."))
+                try {
+                    deity = Integer.valueOf(key.substring("spellCosts.".length()));
+
+                    if (deity < 1 || deity > MAX_DEITY)
+                        throw new NumberFormatException();
+                } catch (NumberFormatException ex) {
+                    Logger.getLogger(SpellCosts.class.getName()).log(Level.WARNING, "Deity number in {0} is not a number from 1 to " + MAX_DEITY + ", skipping it.", key);
+                    skipped++;
+                    continue;
+                }
+            else
+                continue;
+
+            HashMap<Integer, Integer> costs = new HashMap<>();
+
+            for (String value : properties.getProperty(key).split(",")) {
+                if (value.trim().isEmpty())
+                    continue;
+
+                String[] values = value.trim().split(":");
+
+                try {
+                    int number = Integer.valueOf(values[0].trim());
+
+                    if (number < 0 || number > MAX_SPELL)
+                        throw new NumberFormatException();
+
+                    costs.put(number, Math.max(1, Integer.valueOf(values[1].trim())));
+                    columns = Math.max(columns, number + 1);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                    Logger.getLogger(SpellCosts.class.getName()).log(Level.WARNING, "Spell cost {0} is not spell:cost, skipping it.", value);
+                    skipped++;
+                }
+            }
+
+            deities.put(deity, costs);
+            rows = Math.max(rows, deity + 1);
+        }
+
+        int[][] table = new int[rows][];
+        table[0] = Row(columns, null, deities.get(0));
+
+        for (Map.Entry<Integer, HashMap<Integer, Integer>> deity : deities.entrySet())
+            if (deity.getKey() > 0)
+                table[deity.getKey()] = Row(columns, table[0], deity.getValue());
+
+        _Table = new Table(factor, table);
+        return String.format("Spells cost 1/%d of their favor, deities with costs of their own: %d.%s", factor, deities.size() - (deities.containsKey(0) ? 1 : 0),
+                skipped > 0 ? String.format(" Skipped %d entries that could not be read, see the server log.", skipped) : "");
+    }
+
+    private static int[] Row(int columns, int[] all, HashMap<Integer, Integer> costs) {
+        int[] row = all == null ? new int[columns] : all.clone();
+
+        if (all == null)
+            Arrays.fill(row, NONE);
+
+        if (costs != null)
+            for (Map.Entry<Integer, Integer> cost : costs.entrySet())
+                row[cost.getKey()] = cost.getValue();
+
+        return row;
+    }
+}
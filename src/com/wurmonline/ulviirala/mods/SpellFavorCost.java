@@ -1,52 +1,83 @@
 package com.wurmonline.ulviirala.mods;
 
-import com.wurmonline.server.deities.Deities;
-import com.wurmonline.server.deities.Deity;
-import com.wurmonline.server.spells.Spell;
-import java.lang.reflect.Field;
+import com.wurmonline.server.creatures.Communicator;
 import java.util.Properties;
-import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.NotFoundException;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
 import org.gotti.wurmunlimited.modloader.classhooks.HookException;
+import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
 import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
-import org.gotti.wurmunlimited.modloader.interfaces.ServerStartedListener;
+import org.gotti.wurmunlimited.modloader.interfaces.PlayerMessageListener;
+import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
 /**
  * UNTESTED WITH 1.1.1.1
- * 
+ *
  * Changes the spell cost of all priest spells, diving them by a factor,
  * though the spell cost will always be at least 1 favor.
+ *
+ * Costs can also be set per spell, for all deities or one, see SpellCosts.
+ * GMs reload them from the properties file with /spellcosts reload.
  */
-public class SpellFavorCost implements WurmServerMod, ServerStartedListener, Configurable {
-    private int _Factor = 10;
-    
+public class SpellFavorCost implements WurmServerMod, PreInitable, Configurable, PlayerMessageListener {
     @Override
     public void configure(Properties properties) {
-        _Factor = Integer.valueOf(properties.getProperty("Factor", Integer.toString(_Factor)));
-        
-        // Sanitise value. Upper bound doesn't matter here, spell cost will
-        // always be 1 or higher, set my Math.Max(1, n) where n is new cost.
-        if (_Factor < 1)
-            _Factor = 1;
+        // The factor is at least 1, and every cost at least 1 favor.
+        Logger.getLogger(SpellFavorCost.class.getName()).log(Level.INFO, SpellCosts.Load(properties));
     }
-    
+
     @Override
-    public void onServerStarted() {
+    public void preInit() {
         try {
-            Field costField = ReflectionUtil.getField(Spell.class, "cost");
-
-            for (Deity deity : Deities.getDeities()) {
-                for (Spell spell : deity.getSpells()) {
-                    int oldCost = spell.getCost(false);
-                    int newCost = Math.max(1, oldCost / 10);
+            CtClass spell = HookManager.getInstance().getClassPool().get("com.wurmonline.server.spells.Spell");
+            CtClass creature = HookManager.getInstance().getClassPool().get("com.wurmonline.server.creatures.Creature");
 
-                    if (oldCost != newCost) {
-                        ReflectionUtil.setPrivateField(spell, costField, newCost);
-                    }
+            /**
+             * Spells are shared by all deities, so the cost is looked up
+             * whenever a spell reads it, instead of changing the field once.
+             *
+             * spell.cost
+             *
+             * becomes
+             *
+             * SpellCosts.Cost(spell.number, spell.cost)
+             */
+            spell.instrument(new ExprEditor() {
+                @Override
+                public void edit(FieldAccess fieldAccess) throws CannotCompileException {
+                    if (fieldAccess.isReader() && fieldAccess.getFieldName().equals("cost") && fieldAccess.getClassName().equals("com.wurmonline.server.spells.Spell"))
+                        fieldAccess.replace("$_ = com.wurmonline.ulviirala.mods.SpellCosts.Cost($0.number, $proceed());");
                 }
+            });
+
+            // Spell.run(Creature performer, ...) casts the spell, the costs
+            // it reads are the ones of the performer's deity.
+            for (CtMethod method : spell.getDeclaredMethods()) {
+                if (!method.getName().equals("run") || method.getParameterTypes().length == 0 || method.getParameterTypes()[0] != creature)
+                    continue;
+
+                method.insertBefore("{ com.wurmonline.ulviirala.mods.SpellCosts.Casting($1.getDeity()); }");
+                method.insertAfter("{ com.wurmonline.ulviirala.mods.SpellCosts.Casting(null); }", true);
             }
-        } catch (IllegalArgumentException | IllegalAccessException | ClassCastException | NoSuchFieldException ex) {
+        } catch (CannotCompileException | NotFoundException ex) {
             throw new HookException(ex);
         }
     }
+
+    @Override
+    public boolean onPlayerMessage(Communicator communicator, String message) {
+        if (message.equals("/spellcosts reload") && communicator.getPlayer().getPower() > 0) {
+            communicator.sendNormalServerMessage(SpellCosts.Reload());
+            return true;
+        }
+
+        return false;
+    }
 }
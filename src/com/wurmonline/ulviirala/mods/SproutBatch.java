@@ -0,0 +1,133 @@
+package com.wurmonline.ulviirala.mods;
+
+import com.wurmonline.server.FailedException;
+import com.wurmonline.server.Items;
+import com.wurmonline.server.NoSuchItemException;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemFactory;
+import com.wurmonline.server.items.NoSuchTemplateException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the extra sprouts of one pick and puts them in the performer's
+ * inventory, with all their item database writes in one transaction (see
+ * ItemBatch), instead of a commit per insert and owner update.
+ *
+ * Bundled, the extra sprouts are one sprout item instead, weighing as much
+ * as all of them, so a pick adds two items instead of up to 64. Planting a
+ * tree or bush from a bundle takes one sprout's weight off it, and putting
+ * it up for trade splits a real sprout off it, which is traded instead,
+ * until only one is left. Anything else, e.g. planting a hedge or a GM
+ * deleting it, handles the bundle as the one item it is.
+ */
+public final class SproutBatch {
+    private static final int SPROUT = 266;
+
+    private SproutBatch() {
+    }
+
+    /**
+     * Called after pickSprout inserted the first sprout, for the rest.
+     */
+    public static void Pick(Creature performer, int count, float quality, byte material, byte rarity, float damage) {
+        if (count <= 0)
+            return;
+
+        Item inventory = performer.getInventory();
+        ItemBatch.Begin();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                Item sprout = ItemFactory.createItem(SPROUT, quality, material, rarity, null);
+
+                if (damage > 0.0f)
+                    sprout.setDamage(damage);
+
+                inventory.insertItem(sprout);
+            }
+        } catch (FailedException | NoSuchTemplateException ex) {
+            Logger.getLogger(SproutBatch.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            ItemBatch.End();
+        }
+    }
+
+    /**
+     * Like Pick, but the sprouts are one bundle.
+     */
+    public static void Bundle(Creature performer, int count, float quality, byte material, byte rarity, float damage) {
+        if (count <= 0)
+            return;
+
+        ItemBatch.Begin();
+
+        try {
+            Item bundle = ItemFactory.createItem(SPROUT, quality, material, rarity, null);
+            bundle.setWeight(bundle.getTemplate().getWeightGrams() * count, false);
+
+            if (damage > 0.0f)
+                bundle.setDamage(damage);
+
+            performer.getInventory().insertItem(bundle);
+        } catch (FailedException | NoSuchTemplateException ex) {
+            Logger.getLogger(SproutBatch.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            ItemBatch.End();
+        }
+    }
+
+    /**
+     * Called by the planting action instead of Items.destroyItem(sprout),
+     * takes one sprout's weight off a bundle. Whether it was a bundle, and
+     * the sprout shouldn't be destroyed.
+     */
+    public static boolean TakeOne(long wurmId) {
+        try {
+            Item item = Items.getItem(wurmId);
+
+            if (item.getTemplateId() != SPROUT)
+                return false;
+
+            int weight = item.getTemplate().getWeightGrams();
+
+            if (item.getWeightGrams() < weight * 2)
+                return false;
+
+            item.setWeight(item.getWeightGrams() - weight, false);
+            return true;
+        } catch (NoSuchItemException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * One real sprout taken off the bundle, with its QL, material, rarity
+     * and damage, in the bundle's parent. Any other item is returned as is.
+     */
+    public static Item SplitOne(Item item) {
+        if (item.getTemplateId() != SPROUT)
+            return item;
+
+        int weight = item.getTemplate().getWeightGrams();
+
+        if (item.getWeightGrams() < weight * 2)
+            return item;
+
+        try {
+            Item parent = item.getParent();
+            Item sprout = ItemFactory.createItem(SPROUT, item.getQualityLevel(), item.getMaterial(), item.getRarity(), null);
+
+            if (item.getDamage() > 0.0f)
+                sprout.setDamage(item.getDamage());
+
+            item.setWeight(item.getWeightGrams() - weight, false);
+            parent.insertItem(sprout);
+            return sprout;
+        } catch (FailedException | NoSuchTemplateException | NoSuchItemException ex) {
+            Logger.getLogger(SproutBatch.class.getName()).log(Level.SEVERE, null, ex);
+            return item;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.wurmonline.ulviirala.mods;
 
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javassist.CannotCompileException;
 import javassist.CtClass;
 import javassist.CtMethod;
@@ -8,6 +11,7 @@ import javassist.NotFoundException;
 import javassist.bytecode.Descriptor;
 import org.gotti.wurmunlimited.modloader.classhooks.HookException;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
+import org.gotti.wurmunlimited.modloader.interfaces.Configurable;
 import org.gotti.wurmunlimited.modloader.interfaces.PreInitable;
 import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
 
@@ -16,8 +20,19 @@ import org.gotti.wurmunlimited.modloader.interfaces.WurmServerMod;
  * Item models can scale by their weight, this is done
  * in com.wurmonline.server.items.Item.getSizeMod()F. The templateId for
  * a tree stump is 731, here we simply return 10.0f as a temporary measure.
+ *
+ * Other templates can be resized the same way from the config, see
+ * SizeOverrides.
  */
-public class TreeStumpSizeHack implements WurmServerMod, PreInitable {
+public class TreeStumpSizeHack implements WurmServerMod, PreInitable, Configurable {
+    private String _Sizes = "731:10.0"; // templateId:size, comma separated.
+
+    @Override
+    public void configure(Properties properties) {
+        _Sizes = properties.getProperty("sizes", _Sizes);
+        SizeOverrides.Load(_Sizes);
+        Logger.getLogger(TreeStumpSizeHack.class.getName()).log(Level.INFO, String.format("Sizes of %d templates are overridden.", SizeOverrides.Count()));
+    }
 
     @Override
     public void preInit() {
@@ -25,10 +40,17 @@ public class TreeStumpSizeHack implements WurmServerMod, PreInitable {
             CtClass item = HookManager.getInstance().getClassPool().get("com.wurmonline.server.items.Item");
             CtClass[] parameters = { };
             CtMethod method = item.getMethod("getSizeMod", Descriptor.ofMethod(CtPrimitiveType.floatType, parameters));
-            method.insertBefore("{ if (this.getTemplateId() == 731) return 10.0f; }");
+            method.insertBefore(SizeHook());
         } catch (CannotCompileException | NotFoundException e) {
             throw new HookException(e);
         }
     }
-    
+
+    /**
+     * The code inserted into Item.getSizeMod, NaN never equals itself.
+     */
+    static String SizeHook() {
+        return "{ float sizeOverride = com.wurmonline.ulviirala.mods.SizeOverrides.Get(this.getTemplateId());"
+                + " if (sizeOverride == sizeOverride) return sizeOverride; }";
+    }
 }